@@ -0,0 +1,137 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import tr.com.olives4j.sql.SQL;
+
+/**
+ * Generates the sql scripts and statements used by the benchmarks
+ * 
+ * @author omer.dogan
+ *
+ */
+public final class Fixtures {
+
+	private Fixtures() {
+		super();
+	}
+
+	/**
+	 * 
+	 * @param statements
+	 *            number of statements in the script
+	 * @return a sql script with named queries, binding annotations, comments
+	 *         and a plsql block every ten statements
+	 */
+	public static String script(int statements) {
+		StringBuilder buffer = new StringBuilder();
+		for (int i = 0; i < statements; i++) {
+			if (i % 10 == 9) {
+				buffer.append("--@NAMED refresh_customer_").append(i).append("\n");
+				buffer.append("BEGIN\n");
+				buffer.append("  update customer set last_update = sysdate where customer_id = :customer_id;\n");
+				buffer.append("  /* keep the audit trail */\n");
+				buffer.append("  insert into customer_audit(customer_id) values (:customer_id);\n");
+				buffer.append("END;\n");
+				continue;
+			}
+			buffer.append("--@NAMED search_customer_").append(i).append("\n");
+			buffer.append("select * \n");
+			buffer.append("from customer \n");
+			buffer.append("where 1=1 \n");
+			buffer.append("and store_id = 1			--@:store_id optional\n");
+			buffer.append("and first_name like 'A%'	--@:firstname optional\n");
+			buffer.append("and active 	= true			--@:active optional\n");
+			buffer.append("and create_date between (sysdate - 1) --@:start_date\n");
+			buffer.append("				and		(sysdate + 1) --@:end_date\n");
+			buffer.append("and address_id in (select address_id from address where city = 'x;y')\n");
+			buffer.append(";\n\n");
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * 
+	 * @param optionalBinds
+	 *            number of optional bindings, every second one is bound to null
+	 * @param inListSize
+	 *            number of values in the IN-list binding
+	 * @return a search query
+	 */
+	public static SQL query(int optionalBinds, int inListSize) {
+		SQL sql = SQL.of("select c.customer_id, c.first_name, c.last_name, a.phone", //
+				"from customer c", //
+				"inner join address a on a.address_id = c.address_id", //
+				"where 1=1");
+		for (int i = 0; i < optionalBinds; i++) {
+			sql.append("and c.attribute_" + i + " = :attr" + i);
+		}
+		sql.append("and c.customer_id in :ids");
+		sql.append("order by c.last_name");
+
+		for (int i = 0; i < optionalBinds; i++) {
+			sql.bindings().bind("attr" + i, i % 2 == 0 ? null : Integer.valueOf(i)).optional();
+		}
+		sql.bindings().bind("ids", ids(inListSize, 0));
+		return sql;
+	}
+
+	/**
+	 * 
+	 * @param size
+	 *            number of values
+	 * @param offset
+	 *            first value
+	 * @return list of ids
+	 */
+	public static List<Long> ids(int size, long offset) {
+		List<Long> ids = new ArrayList<Long>(size);
+		for (int i = 0; i < size; i++) {
+			ids.add(offset + i);
+		}
+		return ids;
+	}
+
+	/**
+	 * 
+	 * @return a PreparedStatement which ignores all calls
+	 */
+	public static PreparedStatement statement() {
+		return (PreparedStatement) Proxy.newProxyInstance(Fixtures.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						Class<?> type = method.getReturnType();
+						if (type == boolean.class) {
+							return Boolean.FALSE;
+						} else if (type == int.class) {
+							return Integer.valueOf(0);
+						} else if (type == long.class) {
+							return Long.valueOf(0);
+						}
+						return null;
+					}
+				});
+	}
+}
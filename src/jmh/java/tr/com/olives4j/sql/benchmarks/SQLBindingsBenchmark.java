@@ -0,0 +1,81 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql.benchmarks;
+
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tr.com.olives4j.sql.SQL;
+import tr.com.olives4j.sql.SQLBindings;
+
+/**
+ * Measures binding values by name and applying them to a PreparedStatement
+ * 
+ * @author omer.dogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLBindingsBenchmark {
+	/** Number of optional bindings **/
+	@Param({ "0", "10", "30" })
+	int optionalBinds;
+
+	/** Number of values in the IN-list **/
+	@Param({ "1", "100", "1000" })
+	int inListSize;
+
+	SQLBindings bindings;
+	PreparedStatement pstmt;
+
+	@Setup
+	public void setup() {
+		SQL sql = Fixtures.query(optionalBinds, inListSize);
+		bindings = sql.bindings();
+		pstmt = Fixtures.statement();
+	}
+
+	@Benchmark
+	public SQLBindings bind() {
+		for (int i = 1; i < optionalBinds; i += 2) {
+			bindings.bind("attr" + i, Integer.valueOf(i));
+		}
+		return bindings;
+	}
+
+	@Benchmark
+	public PreparedStatement apply() {
+		bindings.apply(pstmt);
+		return pstmt;
+	}
+}
@@ -0,0 +1,74 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tr.com.olives4j.sql.SQL;
+
+/**
+ * Measures cloning a named query per request and binding one value on the
+ * clone
+ * 
+ * @author omer.dogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLCloneBenchmark {
+	/** Number of optional bindings **/
+	@Param({ "10", "100", "250" })
+	int optionalBinds;
+
+	SQL sql;
+
+	@Setup
+	public void setup() {
+		sql = Fixtures.query(optionalBinds, 1);
+	}
+
+	@Benchmark
+	public SQL copy() {
+		return sql.clone();
+	}
+
+	/**
+	 * Clone and bind a single value, only the path to the binding is copied
+	 */
+	@Benchmark
+	public SQL copyAndBind() {
+		SQL clone = sql.clone();
+		clone.bindings().bind(0, 1L);
+		return clone;
+	}
+}
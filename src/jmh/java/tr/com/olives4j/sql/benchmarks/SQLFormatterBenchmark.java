@@ -0,0 +1,78 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tr.com.olives4j.sql.util.SQLFormatter;
+
+/**
+ * Measures formatting generated queries of growing size by
+ * {@link SQLFormatter}, the time per condition should stay flat
+ * 
+ * @author omer.dogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLFormatterBenchmark {
+	/** Number of the conditions and sub queries in the query **/
+	@Param({ "100", "1000", "10000" })
+	int conditions;
+
+	String sql;
+	List<Object> params;
+
+	@Setup
+	public void setup() {
+		StringBuilder buffer = new StringBuilder("select c.customer_id, c.first_name from customer c where 1=1");
+		params = new ArrayList<Object>(conditions);
+		for (int i = 0; i < conditions; i++) {
+			if (i % 10 == 9) {
+				buffer.append(" and c.address_id in (select a.address_id from address a where a.city_id = ?)");
+			} else {
+				buffer.append(" and c.attribute_").append(i).append(" = ?");
+			}
+			params.add(Integer.valueOf(i));
+		}
+		buffer.append(" order by c.last_name");
+		sql = buffer.toString();
+	}
+
+	@Benchmark
+	public StringBuilder format() {
+		return SQLFormatter.INSTANCE.format(sql, 0, params);
+	}
+}
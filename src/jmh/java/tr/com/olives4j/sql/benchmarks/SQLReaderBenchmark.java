@@ -0,0 +1,75 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tr.com.olives4j.sql.SQLCache;
+import tr.com.olives4j.sql.SQLCollection;
+import tr.com.olives4j.sql.SQLReader;
+
+/**
+ * Measures parsing sql scripts by {@link SQLReader}
+ * 
+ * @author omer.dogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLReaderBenchmark {
+	/** Number of statements in the script **/
+	@Param({ "10", "100", "1000" })
+	int statements;
+
+	String script;
+	byte[] cached;
+
+	@Setup
+	public void setup() {
+		script = Fixtures.script(statements);
+		cached = SQLCache.encode(SQLReader.read(script));
+	}
+
+	@Benchmark
+	public SQLCollection read() {
+		return SQLReader.read(script);
+	}
+
+	/**
+	 * Load the same script from its cached binary form
+	 */
+	@Benchmark
+	public SQLCollection decode() {
+		return SQLCache.decode(cached);
+	}
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tr.com.olives4j.sql.SQL;
+import tr.com.olives4j.sql.SQLTemplate;
+
+/**
+ * Measures rendering and formatting a search query with optional bindings and
+ * an IN-list
+ * 
+ * @author omer.dogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQLRenderBenchmark {
+	/** Number of optional bindings **/
+	@Param({ "0", "10", "30" })
+	int optionalBinds;
+
+	/** Number of values in the IN-list **/
+	@Param({ "1", "100", "1000" })
+	int inListSize;
+
+	SQL sql;
+	SQLTemplate template;
+	Object[] values;
+	List<Long> ids1;
+	List<Long> ids2;
+	boolean flip;
+
+	@Setup
+	public void setup() {
+		sql = Fixtures.query(optionalBinds, inListSize);
+		template = sql.compile();
+		values = template.values();
+		ids1 = Fixtures.ids(inListSize, 0);
+		ids2 = Fixtures.ids(inListSize, inListSize);
+	}
+
+	/**
+	 * Bind new values with the same shape and render
+	 */
+	@Benchmark
+	public String render() {
+		flip = !flip;
+		sql.bindings().bind("ids", flip ? ids1 : ids2);
+		return sql.toString();
+	}
+
+	/**
+	 * Render the compiled template
+	 */
+	@Benchmark
+	public String renderTemplate() {
+		return template.render(values);
+	}
+
+	@Benchmark
+	public StringBuilder format() {
+		return sql.format();
+	}
+}
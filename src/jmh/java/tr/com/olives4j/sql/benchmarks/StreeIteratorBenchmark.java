@@ -0,0 +1,99 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tr.com.olives4j.sql.SQLBindNode;
+import tr.com.olives4j.stree.StreeGroup;
+import tr.com.olives4j.stree.StreeIterator;
+import tr.com.olives4j.stree.StreeNode;
+import tr.com.olives4j.stree.StreeNodeMatcher;
+
+/**
+ * Measures traversing trees of different depths by {@link StreeIterator}
+ * 
+ * @author omer.dogan
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreeIteratorBenchmark {
+	private static final StreeNodeMatcher<SQLBindNode> BINDS = StreeNodeMatcher.of(SQLBindNode.class, null);
+
+	/** Depth of the tree **/
+	@Param({ "1", "10", "100" })
+	int depth;
+
+	/** Number of the child nodes in each group **/
+	@Param({ "10", "100" })
+	int width;
+
+	StreeGroup root;
+
+	@Setup
+	public void setup() {
+		root = group(depth);
+	}
+
+	StreeGroup group(int level) {
+		StreeGroup group = new StreeGroup();
+		for (int i = 0; i < width; i++) {
+			if (i == width / 2 && level > 1) {
+				group.append(group(level - 1));
+			} else if (i % 4 == 3) {
+				group.append(new SQLBindNode().name("p" + i));
+			} else {
+				group.append("and c" + i + " = 1");
+			}
+		}
+		return group;
+	}
+
+	@Benchmark
+	public void nodes(Blackhole bh) {
+		StreeIterator<StreeNode> it = root.iterator();
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+
+	@Benchmark
+	public void binds(Blackhole bh) {
+		StreeIterator<SQLBindNode> it = root.iterator(BINDS);
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+}
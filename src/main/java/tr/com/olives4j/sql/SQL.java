@@ -17,11 +17,17 @@
 package tr.com.olives4j.sql;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import tr.com.olives4j.sql.util.Functionals.Predicate;
 import tr.com.olives4j.sql.util.SQLFormatter;
+import tr.com.olives4j.sql.util.SQLLexer;
 import tr.com.olives4j.stree.Stree;
 import tr.com.olives4j.stree.StreeClause;
 import tr.com.olives4j.stree.StreeGroup;
@@ -50,6 +56,9 @@ public class SQL extends Stree {
 	/** Iterator instance for traversing sql bind nodes **/
 	private static final StreeNodeMatcher<SQLBindNode> BINDS = new StreeNodeMatcher<SQLBindNode>(SQLBindNode.class,
 			false);
+	/** Iterator instance for traversing all sql bind nodes including excluded ones **/
+	private static final StreeNodeMatcher<SQLBindNode> ALL_BINDS = new StreeNodeMatcher<SQLBindNode>(
+			SQLBindNode.class, null);
 	/** Hold the SQL instance count **/
 	private static final AtomicInteger instanceCounter = new AtomicInteger();
 	/** Hold default options */
@@ -65,6 +74,21 @@ public class SQL extends Stree {
 	 */
 	Options options = null;
 
+	/**
+	 * Holds the rendered sql strings by the shape of the bindings
+	 */
+	private Map<Shape, String> renders;
+
+	/**
+	 * Holds all binding nodes in the tree order, null if the tree modified
+	 */
+	private SQLBindNode[] binds;
+
+	/**
+	 * Reused to compute the shape of the current bindings
+	 */
+	private Shape shape;
+
 	/**
 	 * Construct empty sql
 	 */
@@ -126,38 +150,198 @@ public class SQL extends Stree {
 	}
 
 	/**
+	 * Return a copy of this sql instance. The nodes are shared by the copies,
+	 * a node is copied before it is handed out by the bindings or the tree
+	 * methods, e.g. {@link #getNodes()}, of either copy. The static clauses
+	 * are never copied, so cloning a large sql costs a few allocations
+	 * regardless of its size.
+	 * 
+	 * <p>
+	 * Once a node of this sql is referenced by the caller, i.e. it is appended
+	 * by the caller or handed out by this sql, the caller may modify it later.
+	 * So the clones of such a sql copy all of its nodes.
+	 * 
 	 * @return a copy of this sql instance
 	 */
 	public SQL clone() {
-		SQL sql = (SQL) new SQL(this.options).name(name);
-		for (int i = 0; i < this.nodes.size(); i++) {
-			sql.append(this.nodes.get(i).clone());
+		if (isExposed()) {
+			return (SQL) copyAll();
 		}
+		SQL sql = (SQL) new SQL(this.options).name(name);
+		share(sql);
+		sql.bindings.nodes.addAll(bindings.nodes);
+		sql.bindings.plans = bindings.plans();
+		return sql;
+	}
 
+	/**
+	 * 
+	 */
+	@Override
+	protected StreeNode copyAll() {
+		SQL sql = (SQL) new SQL(this.options).name(name);
+		Map<StreeNode, StreeNode> copies = new IdentityHashMap<StreeNode, StreeNode>();
+		for (int i = 0; i < nodes.size(); i++) {
+			StreeNode node = nodes.get(i);
+			StreeNode copy = copyAll(node);
+			pair(node, copy, copies);
+			sql.restore(copy);
+		}
+		for (SQLBindNode bind : bindings.nodes) {
+			StreeNode copy = copies.get(bind);
+			sql.bindings.nodes.add(copy == null ? bind : (SQLBindNode) copy);
+		}
+		sql.bindings.plans = bindings.plans();
 		return sql;
 	}
 
 	/**
+	 * Collect the binding nodes of the given node and their copies
+	 * 
+	 * @param node
+	 *            copied node
+	 * @param copy
+	 *            copy of the node having the same shape
+	 * @param copies
+	 *            copies by binding node
+	 */
+	private static void pair(StreeNode node, StreeNode copy, Map<StreeNode, StreeNode> copies) {
+		if (node instanceof SQLBindNode) {
+			copies.put(node, copy);
+		} else if (node instanceof StreeGroup) {
+			List<StreeNode> nodes = children((StreeGroup) node);
+			List<StreeNode> copied = children((StreeGroup) copy);
+			for (int i = 0; i < nodes.size(); i++) {
+				pair(nodes.get(i), copied.get(i), copies);
+			}
+		}
+	}
+
+	/**
+	 * Update the bindings when a shared binding node is replaced by its copy
+	 */
+	@Override
+	protected void replaced(StreeNode node, StreeNode copy) {
+		if (node instanceof SQLBindNode) {
+			bindings.replace((SQLBindNode) node, (SQLBindNode) copy);
+		}
+		super.replaced(node, copy);
+	}
+
+	/**
+	 * Mark this sql as referenced by the caller through the binding nodes
+	 * handed out by the bindings
+	 * 
+	 * @see #clone()
+	 */
+	void exposeBindings() {
+		expose();
+	}
+
+	/**
+	 * 
+	 * @return child nodes of the given group, for reading the tree only
+	 */
+	static List<StreeNode> childrenOf(StreeGroup group) {
+		return children(group);
+	}
+
+	/**
+	 * 
+	 * @return an iterator which does not copy the shared nodes, for reading
+	 *         the tree only
+	 */
+	static <T extends StreeNode> StreeIterator<T> walkOf(StreeGroup group, Predicate<StreeNode> selector) {
+		return walk(group, selector);
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	protected StreeNode copy() {
+		return clone();
+	}
+
+	/**
+	 * 
+	 * @param node
+	 *            binding node of this sql
+	 * @return the binding node or its copy owned by this sql, null if the
+	 *         node is not in this sql
+	 */
+	SQLBindNode own(SQLBindNode node) {
+		return (SQLBindNode) own((StreeNode) node);
+	}
+
+	/**
+	 * Append the given node and register its binding nodes
 	 * 
 	 * @param node
 	 *            target node
 	 */
 	@Override
-	public StreeGroup append(StreeNode node) {
+	protected void add(StreeNode node) {
 		if (node instanceof StreeGroup) {
-			StreeIterator<SQLBindNode> it = ((StreeGroup) node).iterator(BINDS);
+			StreeIterator<SQLBindNode> it = walk((StreeGroup) node, BINDS);
 			while (it.hasNext()) {
 				this.bindings.add(it.next());
 			}
 		} else if (node instanceof SQLBindNode) {
 			this.bindings.add((SQLBindNode) node);
-			StreeNode lastNode = this.nodes.remove(this.nodes.size() - 1);
-			node = new StreeGroup().append(lastNode, node);
+			StreeNode lastNode = own(this.nodes.size() - 1);
+			this.nodes.remove(this.nodes.size() - 1);
+			node = new StreeGroup(Arrays.asList(lastNode, node));
 			
 		}
-		return super.append(node);
+		super.add(node);
+	}
+
+
+	/**
+	 * Append the given node as it is, without registering its bindings. Used to
+	 * restore a decoded sql whose bindings are restored separately.
+	 * 
+	 * @param node
+	 *            decoded node
+	 * @see SQLCache
+	 */
+	void restore(StreeNode node) {
+		super.add(node);
+	}
+
+	/**
+	 * Construct a sql from the given nodes as they are, without parsing. Used
+	 * by the classes generated by {@link SQLGenerator}.
+	 * 
+	 * @param name
+	 *            name of the sql, a generated name is used if null
+	 * @param nodes
+	 *            top level nodes
+	 * @param slots
+	 *            ordinal of the binding node for each binding slot, the
+	 *            binding nodes are numbered in tree order
+	 * @return new sql instance
+	 */
+	public static SQL restore(String name, StreeNode[] nodes, int[] slots) {
+		SQL sql = new SQL();
+		if (name != null) {
+			sql.name(name);
+		}
+		for (StreeNode node : nodes) {
+			sql.restore(node);
+		}
+
+		List<SQLBindNode> binds = new ArrayList<SQLBindNode>();
+		StreeIterator<SQLBindNode> it = walk(sql, ALL_BINDS);
+		while (it.hasNext()) {
+			binds.add(it.next());
+		}
+		for (int slot : slots) {
+			sql.bindings.nodes.add(binds.get(slot));
+		}
+		return sql;
 	}
- 
 
 	/**
 	 * 
@@ -168,54 +352,20 @@ public class SQL extends Stree {
 	@Override
 	protected StreeNode parse(CharSequence query) {
 		int length = query.length();
-		boolean inSingleQuote = false;
-		boolean inDoubleQuote = false;
 		int lastIndex = 0;
-
-		StringBuilder buffer = new StringBuilder();
 		ArrayList<StreeNode> nodes = new ArrayList<StreeNode>(4);
 
-		for (int i = 0; i < length; i++) {
-			char c = query.charAt(i);
-			if (inSingleQuote) {
-				if (c == '\'') {
-					inSingleQuote = false;
-				}
-			} else if (inDoubleQuote) {
-				if (c == '"') {
-					inDoubleQuote = false;
-				}
-			} else {
-				if (c == '\'') {
-					inSingleQuote = true;
-				} else if (c == '"') {
-					inDoubleQuote = true;
-				} else if (c == ':' && i + 1 < length && Character.isJavaIdentifierStart(query.charAt(i + 1))) {
-					int j = i + 2;
-					while (j < length && Character.isJavaIdentifierPart(query.charAt(j))) {
-						j++;
-					}
-
-					CharSequence before = query.subSequence(lastIndex, i);
-					CharSequence name = query.subSequence(i + 1, j);
-					c = '?';
-					i += name.length();
-					StreeClause cBefore = new StreeClause(before);
-					SQLBindNode bind = new SQLBindNode().name(name.toString());
-
-					nodes.add(cBefore);
-					nodes.add(bind);
-					lastIndex = j;
-					buffer.setLength(0);
-					continue;
-				}
+		SQLLexer lexer = new SQLLexer(query);
+		for (int kind = lexer.next(); kind != SQLLexer.EOF; kind = lexer.next()) {
+			if (kind == SQLLexer.PARAMETER) {
+				nodes.add(new StreeClause(query.subSequence(lastIndex, lexer.start())));
+				nodes.add(new SQLBindNode().name(query.subSequence(lexer.start() + 1, lexer.end()).toString()));
+				lastIndex = lexer.end();
 			}
-
-			buffer.append(c);
 		}
 
-		if (buffer.length() > 0) {
-			nodes.add(new StreeClause(buffer));
+		if (lastIndex < length) {
+			nodes.add(new StreeClause(query.subSequence(lastIndex, length)));
 		}
 
 		if (nodes.size() == 0) {
@@ -228,6 +378,55 @@ public class SQL extends Stree {
 		}
 	}
 
+	/**
+	 * Discard the rendered sql strings
+	 */
+	@Override
+	protected void invalidate() {
+		if (renders != null) {
+			renders.clear();
+		}
+		binds = null;
+		super.invalidate();
+	}
+
+	/**
+	 * Render this sql. The rendered string is cached by the shape of the
+	 * bindings, which is the set of the excluded binding nodes and the number of
+	 * the values of the collection bindings. Rendering is skipped if the sql
+	 * rendered before with the same shape and the tree is not modified. The
+	 * content of a clause is changed by {@link StreeClause#content(CharSequence)},
+	 * which discards the cached strings.
+	 */
+	@Override
+	public String toString() {
+		if (options.renderCacheSize <= 0) {
+			return super.toString();
+		}
+
+		if (binds == null) {
+			ArrayList<SQLBindNode> list = new ArrayList<SQLBindNode>();
+			StreeIterator<SQLBindNode> it = walk(this, ALL_BINDS);
+			while (it.hasNext()) {
+				list.add(it.next());
+			}
+			binds = list.toArray(new SQLBindNode[list.size()]);
+			shape = new Shape(binds.length);
+		}
+
+		shape.compute(binds);
+		if (renders == null) {
+			renders = new RenderCache(options.renderCacheSize);
+		}
+
+		String content = renders.get(shape);
+		if (content == null) {
+			content = super.toString();
+			renders.put(shape.copy(), content);
+		}
+		return content;
+	}
+
 	/**
 	 * 
 	 * @return SQL string formatted and binding values placed
@@ -235,7 +434,7 @@ public class SQL extends Stree {
 	public StringBuilder format() {
 		String content = this.toString();
 		List<Object> params = new ArrayList<Object>();
-		Iterator<SQLBindNode> iterator = iterator(BINDS);
+		Iterator<SQLBindNode> iterator = walk(this, BINDS);
 		while (iterator.hasNext()) {
 			SQLBindNode next = (SQLBindNode) iterator.next();
 			next.extract(params);
@@ -245,6 +444,82 @@ public class SQL extends Stree {
 		return buffer;
 	}
 
+	/**
+	 * 
+	 * @return formatted sql which is formatted when it is converted to a string
+	 * @see #formatLazily(int)
+	 */
+	public CharSequence formatLazily() {
+		return formatLazily(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Take a snapshot of the rendered sql and the binding values, the formatting
+	 * is deferred until the result is converted to a string. So a message
+	 * dropped by the logger costs only the snapshot, which is served from the
+	 * render cache.
+	 * 
+	 * <pre>
+	 * logger.debug(sql.formatLazily(4096));
+	 * </pre>
+	 * 
+	 * The binding values are held by reference, the contents of the
+	 * collections and arrays are not copied.
+	 * 
+	 * @param maxLength
+	 *            maximum length of the formatted sql, the longer ones are
+	 *            truncated
+	 * @return formatted sql which is formatted when it is converted to a string
+	 */
+	public CharSequence formatLazily(int maxLength) {
+		String content = this.toString();
+		SQLBindNode[] included = binds;
+		if (included == null) {
+			List<SQLBindNode> list = new ArrayList<SQLBindNode>();
+			Iterator<SQLBindNode> iterator = walk(this, BINDS);
+			while (iterator.hasNext()) {
+				list.add(iterator.next());
+			}
+			included = list.toArray(new SQLBindNode[list.size()]);
+		}
+
+		Object[] values = new Object[included.length];
+		int[][] buckets = null;
+		boolean[] arrays = null;
+		int size = 0;
+		for (SQLBindNode bind : included) {
+			if (bind.isExclude()) {
+				continue;
+			}
+			Object value = bind.value();
+			if (bind.buckets != null) {
+				if (buckets == null) {
+					buckets = new int[included.length][];
+				}
+				buckets[size] = bind.buckets;
+			}
+			if (SQLBindNode.arrayType(value, bind.jdbcType, bind.dialect, bind.arrayThreshold) != null) {
+				if (arrays == null) {
+					arrays = new boolean[included.length];
+				}
+				arrays[size] = true;
+			}
+			values[size++] = value;
+		}
+		return new LazyFormat(content, values, buckets, arrays, size, options, maxLength);
+	}
+
+	/**
+	 * Compile this sql into an immutable template. The template keeps the
+	 * current content and binding properties, later modifications of this sql
+	 * are not reflected to the template.
+	 * 
+	 * @return compiled template of this sql
+	 */
+	public SQLTemplate compile() {
+		return SQLTemplate.compile(this);
+	}
+
 	// Getter/Setter //////////////////////////////
 
 	/**
@@ -296,6 +571,8 @@ public class SQL extends Stree {
 	static class Options implements Cloneable {
 		boolean keepFormat = false;
 		SQLFormatter formatter = SQLFormatter.INSTANCE;
+		/** Maximum number of the rendered sql strings cached per sql, 0 disables **/
+		int renderCacheSize = 16;
 
 		public Options() {
 			super();
@@ -310,4 +587,153 @@ public class SQL extends Stree {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Shape of the bindings of a sql. Holds a bitmask of the excluded binding
+	 * nodes and the number of values of each binding, -1 for single values.
+	 */
+	static final class Shape {
+		/** Size of the bindings rendered as array parameters, offset by the element sql type **/
+		static final int ARRAY_SIZE = Integer.MIN_VALUE / 2;
+
+		final long[] excluded;
+		final int[] sizes;
+		int hash;
+
+		Shape(int size) {
+			this.excluded = new long[(size + 63) >> 6];
+			this.sizes = new int[size];
+		}
+
+		/**
+		 * 
+		 * @param binds
+		 *            binding nodes in the tree order
+		 */
+		void compute(SQLBindNode[] binds) {
+			Arrays.fill(excluded, 0L);
+			for (int i = 0; i < binds.length; i++) {
+				SQLBindNode bind = binds[i];
+				if (bind.isExclude()) {
+					excluded[i >> 6] |= 1L << i;
+					sizes[i] = 0;
+				} else {
+					Object value = bind.value();
+					Integer arrayType = SQLBindNode.arrayType(value, bind.jdbcType, bind.dialect, bind.arrayThreshold);
+					if (arrayType != null) {
+						// rendered the same for any size, only the element type matters
+						sizes[i] = ARRAY_SIZE + arrayType;
+					} else {
+						sizes[i] = SQLBindNode.padded(SQLBindNode.size(value), bind.buckets);
+					}
+				}
+			}
+			hash = 31 * Arrays.hashCode(excluded) + Arrays.hashCode(sizes);
+		}
+
+		/**
+		 * 
+		 * @return a copy of this shape
+		 */
+		Shape copy() {
+			Shape copy = new Shape(sizes.length);
+			System.arraycopy(excluded, 0, copy.excluded, 0, excluded.length);
+			System.arraycopy(sizes, 0, copy.sizes, 0, sizes.length);
+			copy.hash = hash;
+			return copy;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Shape)) {
+				return false;
+			}
+			Shape other = (Shape) obj;
+			return hash == other.hash && Arrays.equals(excluded, other.excluded) && Arrays.equals(sizes, other.sizes);
+		}
+	}
+
+	/**
+	 * Snapshot of a sql formatted on the first conversion to a string
+	 */
+	static final class LazyFormat implements CharSequence {
+		final String content;
+		final Object[] values;
+		/** Bucket sizes of the values, null if no binding is bucketed **/
+		final int[][] buckets;
+		/** Flags of the values bound as array parameters, null if none is **/
+		final boolean[] arrays;
+		final int size;
+		final Options options;
+		final int maxLength;
+		String formatted;
+
+		LazyFormat(String content, Object[] values, int[][] buckets, boolean[] arrays, int size, Options options,
+				int maxLength) {
+			super();
+			this.content = content;
+			this.values = values;
+			this.buckets = buckets;
+			this.arrays = arrays;
+			this.size = size;
+			this.options = options;
+			this.maxLength = maxLength;
+		}
+
+		@Override
+		public String toString() {
+			if (formatted == null) {
+				List<Object> params = new ArrayList<Object>(size);
+				for (int i = 0; i < size; i++) {
+					SQLBindNode.extract(values[i], buckets == null ? null : buckets[i], arrays != null && arrays[i],
+							params);
+				}
+				StringBuilder buffer = new StringBuilder();
+				options.formatter.format(content, 0, params, buffer, options.keepFormat, maxLength);
+				formatted = buffer.toString();
+			}
+			return formatted;
+		}
+
+		@Override
+		public int length() {
+			return toString().length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			return toString().charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().subSequence(start, end);
+		}
+	}
+
+	/**
+	 * Least recently used rendered sql strings
+	 */
+	@SuppressWarnings("serial")
+	static final class RenderCache extends LinkedHashMap<Shape, String> {
+		final int maxSize;
+
+		RenderCache(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Shape, String> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
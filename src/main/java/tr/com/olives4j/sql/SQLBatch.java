@@ -0,0 +1,332 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Execute a sql over many parameter sets using JDBC batches.
+ * 
+ * <p>
+ * Each row is bound to the sql and added to the current batch, the batch is
+ * executed every {@link #size(int)} rows. A row may be an Object[] holding the
+ * values by binding index, a Map holding the values by binding name or a bean
+ * mapped by {@link SQLBind#BEANMAPPER}.
+ * 
+ * <p>
+ * The sql text is rendered once and the statement is prepared once. If a row
+ * changes the rendered text, e.g. by binding a collection of a different size
+ * or by excluding an optional binding, the pending batch is executed and the
+ * statement is prepared again for the new text.
+ * 
+ * <p>
+ * The rows are bound to a {@link SQL#clone()} of the sql, so the given sql
+ * keeps its own values. Every binding is reset to null before a row is bound,
+ * a binding missing from a row is bound as null or as its default value
+ * instead of keeping the value of the previous row.
+ * 
+ * <p>
+ * If a row can not be bound or a batch fails, a {@link BatchException} is
+ * thrown holding the {@link Result} of the batches executed before the
+ * failure. The rows bound after the last executed batch are not executed.
+ * 
+ * <pre>
+ * SQLBatch.Result result = new SQLBatch(sql).size(500).execute(connection, rows);
+ * </pre>
+ * 
+ * @author omer.dogan
+ * 
+ */
+public class SQLBatch {
+	/** Target sql **/
+	final SQL sql;
+	/** Number of rows per batch **/
+	int size = 1000;
+
+	/**
+	 * 
+	 * @param sql
+	 *            target sql
+	 */
+	public SQLBatch(SQL sql) {
+		super();
+		this.sql = sql;
+	}
+
+	/**
+	 * 
+	 * @param size
+	 *            number of rows executed per batch
+	 * @return this
+	 */
+	public SQLBatch size(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Batch size should be positive : " + size);
+		}
+		this.size = size;
+		return this;
+	}
+
+	/**
+	 * Bind each row to the sql and execute them in batches
+	 * 
+	 * @param connection
+	 *            target connection, it is not closed
+	 * @param rows
+	 *            parameter sets
+	 * @return update counts and timings of the executed batches
+	 * @throws BatchException
+	 *             if a row can not be bound or a batch fails, holding the
+	 *             result of the batches executed before
+	 */
+	public Result execute(Connection connection, Iterable<?> rows) {
+		Result result = new Result();
+		SQL target = sql.clone();
+		PreparedStatement pstmt = null;
+		String text = null;
+		int pending = 0;
+
+		try {
+			for (Object row : rows) {
+				String next;
+				try {
+					bind(target, row);
+					next = target.toString();
+				} catch (RuntimeException e) {
+					throw new BatchException("Binding failed at row " + result.bound, e, result);
+				}
+
+				if (pstmt == null || !next.equals(text)) {
+					if (pending > 0) {
+						result.add(pstmt, pending);
+						pending = 0;
+					}
+					if (pstmt != null) {
+						pstmt.close();
+					}
+					text = next;
+					pstmt = connection.prepareStatement(text);
+				}
+
+				try {
+					target.bindings.apply(pstmt);
+				} catch (RuntimeException e) {
+					throw new BatchException("Binding failed at row " + result.bound, e, result);
+				}
+				pstmt.addBatch();
+				pending++;
+				result.bound++;
+
+				if (pending == size) {
+					result.add(pstmt, pending);
+					pending = 0;
+				}
+			}
+
+			if (pending > 0) {
+				result.add(pstmt, pending);
+			}
+		} catch (BatchException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new BatchException("Batch execution failed at row " + result.rows, e, result);
+		} finally {
+			if (pstmt != null) {
+				try {
+					pstmt.close();
+				} catch (Exception e) {
+					// ignore
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Reset the bindings of the target sql and bind the values of the row
+	 * 
+	 * @param target
+	 * @param row
+	 */
+	static void bind(SQL target, Object row) {
+		SQLBindings bindings = target.bindings;
+		for (int i = 0; i < bindings.size(); i++) {
+			bindings.bind(i, null);
+		}
+		if (row instanceof Object[]) {
+			Object[] values = (Object[]) row;
+			for (int i = 0; i < values.length; i++) {
+				bindings.bind(i, values[i]);
+			}
+		} else if (row instanceof Map) {
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) row).entrySet()) {
+				if (bindings.index().containsKey(entry.getKey())) {
+					bindings.bind((String) entry.getKey(), entry.getValue());
+				}
+			}
+		} else {
+			bindings.map(row, SQLBind.BEANMAPPER);
+		}
+	}
+
+	// Inner classes /////////////////////////////////////////
+
+	/**
+	 * Update counts and timings of the executed batches
+	 */
+	public static class Result {
+		/** Update counts returned by each batch **/
+		final List<int[]> counts = new ArrayList<int[]>();
+		/** Number of rows in each batch **/
+		final List<Integer> sizes = new ArrayList<Integer>();
+		/** Execution time of each batch in nanoseconds **/
+		final List<Long> timings = new ArrayList<Long>();
+		/** Number of the rows bound and added to a batch **/
+		int bound;
+		/** Number of the rows in the executed batches **/
+		int rows;
+
+		/**
+		 * Execute the pending batch of the statement and record the result
+		 */
+		void add(PreparedStatement pstmt, int size) throws Exception {
+			long start = System.nanoTime();
+			int[] updateCounts = pstmt.executeBatch();
+			timings.add(System.nanoTime() - start);
+			counts.add(updateCounts);
+			sizes.add(size);
+			rows += size;
+		}
+
+		/**
+		 * 
+		 * @return number of the rows executed
+		 */
+		public int rows() {
+			return rows;
+		}
+
+		/**
+		 * 
+		 * @return number of the rows bound, including the rows of a batch
+		 *         which is not executed because of a failure
+		 */
+		public int bound() {
+			return bound;
+		}
+
+		/**
+		 * 
+		 * @return number of the executed batches
+		 */
+		public int batches() {
+			return counts.size();
+		}
+
+		/**
+		 * 
+		 * @param batch
+		 *            batch index
+		 * @return update counts returned by the batch
+		 */
+		public int[] counts(int batch) {
+			return counts.get(batch);
+		}
+
+		/**
+		 * 
+		 * @param batch
+		 *            batch index
+		 * @return number of rows in the batch
+		 */
+		public int size(int batch) {
+			return sizes.get(batch);
+		}
+
+		/**
+		 * 
+		 * @param batch
+		 *            batch index
+		 * @return execution time of the batch in nanoseconds
+		 */
+		public long nanos(int batch) {
+			return timings.get(batch);
+		}
+
+		/**
+		 * 
+		 * @return sum of the update counts, rows reported as
+		 *         {@link java.sql.Statement#SUCCESS_NO_INFO} are not counted
+		 */
+		public int updated() {
+			int total = 0;
+			for (int[] batch : counts) {
+				for (int count : batch) {
+					if (count > 0) {
+						total += count;
+					}
+				}
+			}
+			return total;
+		}
+
+		/**
+		 * 
+		 * @return total execution time in nanoseconds
+		 */
+		public long nanos() {
+			long total = 0;
+			for (Long timing : timings) {
+				total += timing;
+			}
+			return total;
+		}
+
+		@Override
+		public String toString() {
+			return "SQLBatch.Result(rows:" + rows + ", bound:" + bound + ", batches:" + counts.size() + ", updated:"
+					+ updated() + ", nanos:" + nanos() + ")";
+		}
+	}
+
+	/**
+	 * Thrown if a row can not be bound or a batch fails
+	 */
+	@SuppressWarnings("serial")
+	public static class BatchException extends RuntimeException {
+		/** Result of the batches executed before the failure **/
+		final transient Result result;
+
+		BatchException(String message, Throwable cause, Result result) {
+			super(message, cause);
+			this.result = result;
+		}
+
+		/**
+		 * 
+		 * @return result of the batches executed before the failure, the rows
+		 *         of the failed batch are not counted as executed
+		 */
+		public Result result() {
+			return result;
+		}
+	}
+}
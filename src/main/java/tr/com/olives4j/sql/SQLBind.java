@@ -19,9 +19,15 @@ package tr.com.olives4j.sql;
 import java.beans.BeanInfo;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * 
@@ -147,26 +153,90 @@ public interface SQLBind {
 	}
 
 	/**
-	 * 
+	 * Map the binding values from the bean properties. The property accessors of
+	 * a bean class are introspected once and cached as method handles.
 	 */
 	public static final class BeanMapper implements Mapper {
+		private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+		/**
+		 * Holds the read accessors of the bean properties by bean class
+		 */
+		final Map<Class<?>, Map<String, MethodHandle>> accessors =
+				new ConcurrentHashMap<Class<?>, Map<String, MethodHandle>>();
+
 		@Override
 		public Object map(SQLBindNode binding, Object bean) {
+			if (binding.name == null) {
+				return null;
+			}
+			MethodHandle accessor = accessors(bean.getClass()).get(binding.name);
+			if (accessor != null) {
+				binding.value(get(accessor, bean));
+			}
+			return null;
+		}
+
+		/**
+		 * 
+		 * @param nodes
+		 *            binding nodes
+		 * @param type
+		 *            bean class
+		 * @return accessor for each binding node, null for the nodes without a
+		 *         matching property
+		 */
+		MethodHandle[] plan(List<SQLBindNode> nodes, Class<?> type) {
+			Map<String, MethodHandle> accessors = accessors(type);
+			MethodHandle[] plan = new MethodHandle[nodes.size()];
+			for (int i = 0; i < plan.length; i++) {
+				String name = nodes.get(i).name;
+				if (name != null) {
+					plan[i] = accessors.get(name);
+				}
+			}
+			return plan;
+		}
+
+		/**
+		 * 
+		 * @param type
+		 *            bean class
+		 * @return read accessors of the bean properties by property name
+		 */
+		Map<String, MethodHandle> accessors(Class<?> type) {
+			Map<String, MethodHandle> result = accessors.get(type);
+			if (result != null) {
+				return result;
+			}
+
+			result = new HashMap<String, MethodHandle>();
 			try {
-				BeanInfo beanInfo = Introspector.getBeanInfo(bean.getClass());
-				PropertyDescriptor[] propertyDescriptors = beanInfo.getPropertyDescriptors();
-				for (PropertyDescriptor property : propertyDescriptors) {
-					String propertyName = property.getName();
-					if (binding.name != null) {
-						if (binding.name.equals(propertyName)) {
-							binding.value(property.getReadMethod().invoke(bean));
-						}
+				BeanInfo beanInfo = Introspector.getBeanInfo(type);
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+				for (PropertyDescriptor property : beanInfo.getPropertyDescriptors()) {
+					if (property.getReadMethod() != null) {
+						MethodHandle accessor = lookup.unreflect(property.getReadMethod());
+						result.put(property.getName(), accessor.asType(ACCESSOR_TYPE));
 					}
 				}
-				return null;
 			} catch (Exception e) {
 				throw new RuntimeException(e);
 			}
+			accessors.put(type, result);
+			return result;
+		}
+
+		/**
+		 * 
+		 * @return the property value read by the accessor
+		 */
+		static Object get(MethodHandle accessor, Object bean) {
+			try {
+				return (Object) accessor.invokeExact(bean);
+			} catch (Throwable e) {
+				throw new RuntimeException(e);
+			}
 		}
 	};
 
@@ -198,6 +268,18 @@ public interface SQLBind {
 			set.add(bind);
 		}
 
+		/**
+		 * 
+		 * @return the binding as a node, the collection options are supported
+		 *         by the nodes only
+		 */
+		static SQLBindNode node(SQLBind bind) {
+			if (bind instanceof SQLBindNode) {
+				return (SQLBindNode) bind;
+			}
+			throw new UnsupportedOperationException("Binding is not a SQLBindNode : " + bind);
+		}
+
 		/**
 		 * 
 		 */
@@ -275,6 +357,39 @@ public interface SQLBind {
 			return this;
 		}
 
+		/**
+		 * 
+		 * @see SQLBindNode#bucketed()
+		 */
+		public Set bucketed() {
+			for (SQLBind sqlBind : set) {
+				node(sqlBind).bucketed();
+			}
+			return this;
+		}
+
+		/**
+		 * 
+		 * @see SQLBindNode#bucketed(int...)
+		 */
+		public Set bucketed(int... ladder) {
+			for (SQLBind sqlBind : set) {
+				node(sqlBind).bucketed(ladder);
+			}
+			return this;
+		}
+
+		/**
+		 * 
+		 * @see SQLBindNode#arrays(SQLDialect, int)
+		 */
+		public Set arrays(SQLDialect dialect, int threshold) {
+			for (SQLBind sqlBind : set) {
+				node(sqlBind).arrays(dialect, threshold);
+			}
+			return this;
+		}
+
 		/**
 		 * 
 		 */
@@ -16,10 +16,13 @@
  *******************************************************************************/
 package tr.com.olives4j.sql;
 
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
 
 import tr.com.olives4j.stree.StreeGroup;
 import tr.com.olives4j.stree.StreeIterator;
@@ -33,17 +36,25 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	/** Name of this binding **/
 	public String name;
 	/** Value of this binding **/
-	private Object value;
+	Object value;
 	/** Default value **/
-	private Object defaultValue;
+	Object defaultValue;
 	/** Holds if this binding is optional **/
-	private boolean optional;
+	boolean optional;
 	/** Holds if this binding is inlined into the final sql query **/
-	private boolean inline;
+	boolean inline;
 	/** Hold the jdbc type **/
-	private Integer jdbcType;
+	Integer jdbcType;
 	/** Holds the seperator characters. Default is ',' character */
-	private String seperator = ",";
+	String seperator = ",";
+	/** Bucket sizes of the collection values, empty for powers of two, null if not bucketed **/
+	int[] buckets;
+	/** Dialect used to render the collection values as an array parameter **/
+	SQLDialect dialect;
+	/** Maximum number of the collection values rendered as placeholders **/
+	int arrayThreshold;
+	/** Cached exclusion of this binding, null if it must be computed again **/
+	private Boolean excluded;
 
 	/**
 	 * Construct SQLBindNode with default properties
@@ -95,7 +106,19 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	 */
 	@Override
 	public SQLBindNode name(String name) {
+		if (name == null ? this.name == null : name.equals(this.name)) {
+			return this;
+		}
 		this.name = name;
+
+		// the name index of the owner sql is out of date
+		StreeNode next = parent();
+		while (next != null && !(next instanceof SQL)) {
+			next = next.parent();
+		}
+		if (next != null) {
+			((SQL) next).bindings.reindex();
+		}
 		return this;
 	}
 
@@ -145,6 +168,7 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	public <T> SQLBind value(T var, T... vars) {
 		if (vars.length == 0) {
 			this.value = var;
+			excludeChanged();
 			return this;
 		}
 
@@ -152,6 +176,7 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 		list.add(var);
 		list.addAll(Arrays.asList(vars));
 		this.value = list;
+		excludeChanged();
 		return this;
 	}
 
@@ -168,6 +193,7 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 		}
 
 		this.value = list;
+		excludeChanged();
 		return this;
 	}
 
@@ -176,6 +202,14 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	 * @return
 	 */
 	public Object value() {
+		return value(value, defaultValue, optional);
+	}
+
+	/**
+	 * 
+	 * @return the value used for the given binding state
+	 */
+	static Object value(Object value, Object defaultValue, boolean optional) {
 		if (optional) {
 			return defaultValue;
 		}
@@ -190,6 +224,7 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	 */
 	public SQLBind defaultValue(Object param) {
 		this.defaultValue = param;
+		excludeChanged();
 		return this;
 	}
 
@@ -201,6 +236,7 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	@Override
 	public SQLBindNode optional() {
 		this.optional = true;
+		excludeChanged();
 		return this;
 	}
 
@@ -212,6 +248,7 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	@Override
 	public SQLBindNode optional(Object defaultValue) {
 		this.optional = true;
+		excludeChanged();
 		return this;
 	}
 
@@ -223,12 +260,47 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	@Override
 	public SQLBindNode required() {
 		this.optional = false;
+		excludeChanged();
 		return this;
 	}
 
+	/**
+	 * The exclusion is cached until the value, the default value or the
+	 * optional flag of this binding is set, a collection value modified after
+	 * it is bound should be bound again
+	 */
 	@Override
 	public boolean isExclude() {
-		return exclude || (this.optional && this.defaultValue == null && checkNull());
+		if (excluded == null) {
+			excluded = exclude || (this.optional && this.defaultValue == null && checkNull());
+		}
+		return excluded;
+	}
+
+	/**
+	 * Discard the cached exclusion of this binding and its ancestors
+	 */
+	@Override
+	protected void invalidate() {
+		excluded = null;
+		super.invalidate();
+	}
+
+	/**
+	 * Discard the cached exclusion of this binding and its ancestors
+	 */
+	@Override
+	protected void excludeChanged() {
+		excluded = null;
+		super.excludeChanged();
+	}
+
+	/**
+	 * 
+	 * @return the exclude flag set by {@link #exclude(boolean)}
+	 */
+	boolean excludeFlag() {
+		return exclude;
 	}
 
 	/*
@@ -239,6 +311,63 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	@Override
 	public SQLBind seperator(String seperator) {
 		this.seperator = seperator;
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Pad collection values up to the next power of two, so the number of the
+	 * distinct sql strings stays logarithmic in the collection size. Padded
+	 * placeholders are bound with the last value of the collection.
+	 * 
+	 * @return
+	 */
+	public SQLBindNode bucketed() {
+		this.buckets = new int[0];
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Render collection values having more elements than the threshold as a
+	 * single array parameter of the given dialect
+	 * 
+	 * @param dialect
+	 *            target database dialect
+	 * @param threshold
+	 *            maximum number of the elements rendered as placeholders
+	 * @return
+	 */
+	public SQLBindNode arrays(SQLDialect dialect, int threshold) {
+		if (dialect == null) {
+			throw new IllegalArgumentException("Array dialect should not be null");
+		}
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Array threshold should not be negative : " + threshold);
+		}
+		this.dialect = dialect;
+		this.arrayThreshold = threshold;
+		invalidate();
+		return this;
+	}
+
+	/**
+	 * Pad collection values up to the next step of the given ladder, sizes above
+	 * the last step are padded to a multiple of the last step
+	 * 
+	 * @param ladder
+	 *            ascending bucket sizes
+	 * @return
+	 */
+	public SQLBindNode bucketed(int... ladder) {
+		for (int i = 0; i < ladder.length; i++) {
+			if (ladder[i] < 1 || (i > 0 && ladder[i] <= ladder[i - 1])) {
+				throw new IllegalArgumentException("Bucket sizes should be positive and ascending : "
+						+ Arrays.toString(ladder));
+			}
+		}
+		this.buckets = ladder.clone();
+		invalidate();
 		return this;
 	}
 
@@ -255,16 +384,34 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	 */
 	public Collection<Object> extract(Collection<Object> c) {
 		Object targetValue = value();
+		boolean array = arrayType(targetValue, jdbcType, dialect, arrayThreshold) != null;
+		return extract(targetValue, buckets, array, c);
+	}
 
-		if (targetValue == null) {
-			c.add(null);
-		} else if (targetValue.getClass().isArray()) {
-			c.addAll(Arrays.asList((Object[]) targetValue));
-		} else if (targetValue instanceof Collection) {
-			c.addAll((Collection<?>) targetValue);
-		} else {
-			c.add(targetValue);
+	/**
+	 * Add the parameter values of the given binding value to the collection
+	 * 
+	 * @param targetValue
+	 * @param buckets
+	 *            bucket sizes, null if not bucketed
+	 * @param array
+	 *            if the value is bound as a single array parameter
+	 * @param c
+	 * @return the given collection
+	 * @see #values(Object, int[], Values)
+	 * @see #arrayType(Object, Integer, SQLDialect, int)
+	 */
+	static Collection<Object> extract(Object targetValue, int[] buckets, boolean array, final Collection<Object> c) {
+		if (array) {
+			c.add(targetValue instanceof Object[] ? Arrays.asList((Object[]) targetValue) : targetValue);
+			return c;
 		}
+		values(targetValue, buckets, new Values<RuntimeException>() {
+			@Override
+			void add(Object value) {
+				c.add(value);
+			}
+		});
 		return c;
 	}
 
@@ -282,20 +429,40 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 				this.parent().exclude(exclude);
 			}
 		} else {
-			StreeNode prev = null;
-			Iterator<StreeNode> nodes = ((StreeGroup) root()).iterator(null);
-			while (nodes.hasNext()) {
-				StreeNode next = nodes.next();
-				if (next == this && prev != null) {
-					prev.exclude(exclude);
-				}
-				prev = next;
+			StreeNode prev = previousLeaf();
+			if (prev != null) {
+				prev.exclude(exclude);
 			}
 		}
 
 		return this;
 	}
 
+	/**
+	 * 
+	 * @return the node before this node in the tree order of the leaf nodes,
+	 *         null if this node is the first one
+	 */
+	private StreeNode previousLeaf() {
+		StreeNode node = this;
+		while (node != null) {
+			StreeNode prev = previousOf(node);
+			if (prev == null) {
+				node = node.parent();
+				continue;
+			}
+			while (prev instanceof StreeGroup && ((StreeGroup) prev).size() > 0) {
+				prev = lastOf((StreeGroup) prev);
+			}
+			if (!(prev instanceof StreeGroup)) {
+				return prev;
+			}
+			// continue with the sibling of the empty group
+			node = prev;
+		}
+		return null;
+	}
+
 	/**
 	 * 
 	 * @return
@@ -316,6 +483,14 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	 * @return
 	 */
 	public boolean checkNull() {
+		return isNull(value);
+	}
+
+	/**
+	 * 
+	 * @return if the given binding value is treated as null
+	 */
+	static boolean isNull(Object value) {
 		if (value == null) {
 			return true;
 		} else if (value.getClass().isArray() && ((Object[]) value).length == 1 && ((Object[]) value)[0] == null) {
@@ -339,14 +514,179 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 
 		super.merge(buffer);
 
+		if (buffer.length() == 0 || !Character.isWhitespace(buffer.charAt(buffer.length() - 1))) {
+			buffer.append(" ");
+		}
+
 		Object targetValue = value();
+		Integer arrayType = arrayType(targetValue, jdbcType, dialect, arrayThreshold);
+		if (arrayType != null) {
+			dialect.render(buffer, arrayType);
+		} else {
+			placeholders(buffer, targetValue, seperator, buckets);
+		}
 
-		boolean isArray = targetValue != null && targetValue.getClass().isArray();
-		boolean isIterable = targetValue != null && targetValue instanceof Iterable;
+		return this;
+	}
 
-		if (buffer.length() == 0 || !Character.isWhitespace(buffer.charAt(buffer.length() - 1))) {
-			buffer.append(" ");
+	/**
+	 * 
+	 * @param targetValue
+	 *            value of the binding
+	 * @param jdbcType
+	 *            declared jdbc type, may be null
+	 * @param dialect
+	 *            array dialect, may be null
+	 * @param threshold
+	 *            maximum number of the values rendered as placeholders
+	 * @return sql type of the elements if the value is rendered as an array
+	 *         parameter, otherwise null, e.g. for an empty collection
+	 */
+	static Integer arrayType(Object targetValue, Integer jdbcType, SQLDialect dialect, int threshold) {
+		if (dialect == null) {
+			return null;
+		}
+
+		Object first = null;
+		if (targetValue instanceof Object[]) {
+			Object[] values = (Object[]) targetValue;
+			if (values.length == 0 || values.length <= threshold) {
+				return null;
+			}
+			first = values[0];
+		} else if (targetValue instanceof Collection) {
+			Collection<?> values = (Collection<?>) targetValue;
+			if (values.isEmpty() || values.size() <= threshold) {
+				return null;
+			}
+			first = values.iterator().next();
+		} else {
+			return null;
+		}
+
+		if (jdbcType != null) {
+			return jdbcType;
+		}
+		return first == null ? Types.VARCHAR : SQLBindings.Setter.of(first.getClass()).sqlType;
+	}
+
+	/**
+	 * 
+	 * @param size
+	 *            number of the collection values
+	 * @param buckets
+	 *            bucket sizes, empty for powers of two, null if not bucketed
+	 * @return number of the placeholders rendered for the collection values
+	 */
+	static int padded(int size, int[] buckets) {
+		if (buckets == null || size <= 0) {
+			return size;
+		}
+		if (buckets.length == 0) {
+			int padded = Integer.highestOneBit(size);
+			return padded == size ? size : padded << 1;
+		}
+		for (int i = 0; i < buckets.length; i++) {
+			if (size <= buckets[i]) {
+				return buckets[i];
+			}
+		}
+		int last = buckets[buckets.length - 1];
+		return (size + last - 1) / last * last;
+	}
+
+	/**
+	 * Pass the parameter values of the given binding value to the receiver.
+	 * The elements of the arrays and collections are passed one by one and
+	 * the padded placeholders of a bucketed binding take the last element
+	 * 
+	 * @param targetValue
+	 *            value of the binding
+	 * @param buckets
+	 *            bucket sizes, null if not bucketed
+	 * @param values
+	 *            receiver of the parameter values
+	 */
+	static <E extends Exception> void values(Object targetValue, int[] buckets, Values<E> values) throws E {
+		int size = 0;
+		Object last = null;
+		if (targetValue instanceof Object[]) {
+			Object[] array = (Object[]) targetValue;
+			for (; size < array.length; size++) {
+				values.add(last = array[size]);
+			}
+		} else if (targetValue instanceof List && targetValue instanceof RandomAccess) {
+			List<?> list = (List<?>) targetValue;
+			for (; size < list.size(); size++) {
+				values.add(last = list.get(size));
+			}
+		} else if (targetValue instanceof Collection) {
+			for (Object item : (Collection<?>) targetValue) {
+				values.add(last = item);
+				size++;
+			}
+		} else {
+			values.add(targetValue);
+			return;
+		}
+		for (int i = padded(size, buckets); i > size; i--) {
+			values.add(last);
 		}
+	}
+
+	/**
+	 * Receiver of the parameter values of a binding
+	 * 
+	 * @see SQLBindNode#values(Object, int[], Values)
+	 */
+	abstract static class Values<E extends Exception> {
+		/**
+		 * 
+		 * @param value
+		 *            value of the next parameter
+		 */
+		abstract void add(Object value) throws E;
+	}
+
+	/**
+	 * 
+	 * @return number of the values for collection bindings, -1 for single
+	 *         values
+	 */
+	static int size(Object targetValue) {
+		if (targetValue == null) {
+			return -1;
+		} else if (targetValue.getClass().isArray()) {
+			return ((Object[]) targetValue).length;
+		} else if (targetValue instanceof Collection) {
+			return ((Collection<?>) targetValue).size();
+		} else if (targetValue instanceof Iterable) {
+			int size = 0;
+			Iterator<?> it = ((Iterable<?>) targetValue).iterator();
+			while (it.hasNext()) {
+				it.next();
+				size++;
+			}
+			return size;
+		}
+		return -1;
+	}
+
+	/**
+	 * Append the jdbc placeholders for the given binding value
+	 * 
+	 * @param buffer
+	 *            target buffer
+	 * @param targetValue
+	 *            value of the binding
+	 * @param seperator
+	 *            seperator characters between placeholders
+	 * @param buckets
+	 *            bucket sizes, null if not bucketed
+	 */
+	static void placeholders(StringBuilder buffer, Object targetValue, String seperator, int[] buckets) {
+		boolean isArray = targetValue != null && targetValue.getClass().isArray();
+		boolean isIterable = targetValue != null && targetValue instanceof Iterable;
 
 		Iterable<?> ita = null;
 		if (isArray) {
@@ -355,7 +695,7 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 			ita = (Iterable<?>) targetValue;
 		} else {
 			buffer.append("(?)");
-			return this;
+			return;
 		}
 
 		Iterator<?> it = ita.iterator();
@@ -364,15 +704,18 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 		if (!it.hasNext()) {
 			buffer.append("null").append(seperator);
 		} else {
+			int count = 0;
 			while (it.hasNext()) {
 				it.next();
 				buffer.append("?").append(seperator);
+				count++;
+			}
+			for (int i = padded(count, buckets); i > count; i--) {
+				buffer.append("?").append(seperator);
 			}
 		}
 		buffer.setLength(buffer.length() - 1);
 		buffer.append(")");
-
-		return this;
 	}
 
 	/**
@@ -388,7 +731,7 @@ public class SQLBindNode extends StreeNode implements SQLBind {
 	 */
 	@Override
 	public boolean isExcluded() {
-		return exclude || (this.optional && this.defaultValue == null && checkNull());
+		return isExclude();
 	}
 
 	/**
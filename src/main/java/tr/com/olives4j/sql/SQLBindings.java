@@ -16,13 +16,25 @@
  *******************************************************************************/
 package tr.com.olives4j.sql;
 
+import java.lang.invoke.MethodHandle;
+import java.math.BigDecimal;
 import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import tr.com.olives4j.sql.SQLBind.Set;
+import tr.com.olives4j.sql.util.IntList;
 
 /**
  * 
@@ -40,6 +52,30 @@ public class SQLBindings implements Collection<SQLBindNode> {
 	 */
 	SQL sql;
 
+	/**
+	 * Indexes of the binding nodes by name, built on first named access and
+	 * discarded when the nodes or their names change
+	 */
+	Map<String, IntList> index;
+
+	/**
+	 * Binding sets by name for the names used more than once
+	 */
+	Map<String, Set> sets;
+
+	/**
+	 * Bean mapping plans by bean class, holds the property accessor of each
+	 * binding node. Shared by a sql and its clones until the bindings of one
+	 * of them change
+	 */
+	ConcurrentMap<Class<?>, MethodHandle[]> plans;
+
+	/**
+	 * Parameter setters planned by {@link #apply(PreparedStatement)} for the
+	 * value types of the binding slots
+	 */
+	SetterPlan setters;
+
 	/**
 	 * 
 	 * @param sql
@@ -57,8 +93,23 @@ public class SQLBindings implements Collection<SQLBindNode> {
 	 * @param mapper
 	 */
 	public SQLBindings map(Object bean, SQLBind.Mapper mapper) {
-		for (SQLBindNode sqlBind : nodes) {
-			mapper.map(sqlBind, bean);
+		if (mapper instanceof SQLBind.BeanMapper) {
+			ConcurrentMap<Class<?>, MethodHandle[]> plans = plans();
+			MethodHandle[] plan = plans.get(bean.getClass());
+			if (plan == null) {
+				plan = ((SQLBind.BeanMapper) mapper).plan(nodes, bean.getClass());
+				plans.putIfAbsent(bean.getClass(), plan);
+			}
+			for (int i = 0; i < plan.length; i++) {
+				if (plan[i] != null) {
+					own(i).value(SQLBind.BeanMapper.get(plan[i], bean));
+				}
+			}
+			return this;
+		}
+
+		for (int i = 0; i < nodes.size(); i++) {
+			mapper.map(own(i), bean);
 		}
 		return this;
 	}
@@ -72,8 +123,9 @@ public class SQLBindings implements Collection<SQLBindNode> {
 		if (index >= nodes.size()) {
 			throw new RuntimeException("SQL has not any parameter with index : " + index);
 		}
-		SQLBindNode bind = nodes.get(index);
+		SQLBindNode bind = own(index);
 		bind.value(value);
+		sql.exposeBindings();
 		return bind;
 	}
 
@@ -83,33 +135,19 @@ public class SQLBindings implements Collection<SQLBindNode> {
 	 * @param value
 	 */
 	public SQLBind bind(String name, Object value) {
-		SQLBindNode target = null;
-		Set set = null;
-
-		for (int i = 0; i < nodes.size(); i++) {
-			SQLBindNode next = nodes.get(i);
-			if (next.name != null && next.name.equals(name)) {
-				if (set != null) {
-					set.add(next);
-				} else if (target != null) {
-					next.value(value);
-					set = new Set();
-					set.add(target);
-					set.add(next);
-				} else {
-					next.value(value);
-					target = next;
-				}
-			}
+		IntList slots = index().get(name);
+		if (slots == null) {
+			throw new RuntimeException("SQL has not any named parameter with the name : " + name);
 		}
 
-		if (target == null) {
-			throw new RuntimeException("SQL has not any named parameter with the name : " + name);
+		for (int i = 0; i < slots.size(); i++) {
+			own(slots.get(i)).value(value);
 		}
-		if (set != null) {
-			return set;
+		sql.exposeBindings();
+		if (slots.size() > 1) {
+			return sets.get(name);
 		}
-		return target;
+		return nodes.get(slots.get(0));
 	}
 
 	/**
@@ -117,8 +155,9 @@ public class SQLBindings implements Collection<SQLBindNode> {
 	 * @return the binding node in the given index
 	 */
 	public SQLBind get(int index) {
-		SQLBindNode bind = nodes.get(index);
+		SQLBindNode bind = own(index);
 		if (bind.name == null) {
+			sql.exposeBindings();
 			return bind;
 		}
 
@@ -131,13 +170,128 @@ public class SQLBindings implements Collection<SQLBindNode> {
 	 * @return the binding node for the given name
 	 */
 	public SQLBind get(String name) {
+		IntList slots = index().get(name);
+		if (slots == null) {
+			return new Set();
+		}
+		for (int i = 0; i < slots.size(); i++) {
+			own(slots.get(i));
+		}
+		sql.exposeBindings();
+		if (slots.size() > 1) {
+			return sets.get(name);
+		}
 		Set set = new Set();
-		for (SQLBindNode sqlBind : nodes) {
-			if (name.equals(sqlBind.name)) {
-				set.add(sqlBind);
+		set.add(nodes.get(slots.get(0)));
+		return set;
+	}
+
+	/**
+	 * Return the binding node in the given slot owned by the sql. A binding
+	 * node shared with a clone of the sql is replaced by its copy before it is
+	 * modified
+	 * 
+	 * @param slot
+	 *            index of the binding node
+	 * @return the binding node owned by the sql
+	 * @see SQL#clone()
+	 */
+	SQLBindNode own(int slot) {
+		// a copied node is put into the slots by replace
+		sql.own(nodes.get(slot));
+		return nodes.get(slot);
+	}
+
+	/**
+	 * Replace the given binding node with its copy in all slots
+	 * 
+	 * @param node
+	 *            shared binding node
+	 * @param copy
+	 *            copy of the node owned by the sql
+	 */
+	void replace(SQLBindNode node, SQLBindNode copy) {
+		for (int i = 0; i < nodes.size(); i++) {
+			if (nodes.get(i) == node) {
+				nodes.set(i, copy);
+			}
+		}
+		Set set = sets == null || node.name == null ? null : sets.get(node.name);
+		if (set != null) {
+			for (int i = 0; i < set.set.size(); i++) {
+				if (set.set.get(i) == node) {
+					set.set.set(i, copy);
+				}
 			}
 		}
-		return set;
+	}
+
+	/**
+	 * Own all binding nodes before they are handed out
+	 */
+	private void ownAll() {
+		for (int i = 0; i < nodes.size(); i++) {
+			own(i);
+		}
+		sql.exposeBindings();
+	}
+
+	/**
+	 * 
+	 * @return indexes of the binding nodes by name
+	 */
+	Map<String, IntList> index() {
+		if (index != null) {
+			return index;
+		}
+
+		Map<String, IntList> index = new HashMap<String, IntList>();
+		Map<String, Set> sets = new HashMap<String, Set>();
+		for (int i = 0; i < nodes.size(); i++) {
+			SQLBindNode node = nodes.get(i);
+			if (node.name == null) {
+				continue;
+			}
+			IntList slots = index.get(node.name);
+			if (slots == null) {
+				slots = new IntList(1);
+				index.put(node.name, slots);
+			} else if (slots.size() == 1) {
+				Set set = new Set();
+				set.add(nodes.get(slots.get(0)));
+				sets.put(node.name, set);
+			}
+			slots.add(i);
+			if (slots.size() > 1) {
+				sets.get(node.name).add(node);
+			}
+		}
+		this.sets = sets;
+		this.index = index;
+		return index;
+	}
+
+	/**
+	 * 
+	 * @return bean mapping plans of the current binding nodes
+	 */
+	ConcurrentMap<Class<?>, MethodHandle[]> plans() {
+		if (plans == null) {
+			plans = new ConcurrentHashMap<Class<?>, MethodHandle[]>();
+		}
+		return plans;
+	}
+
+	/**
+	 * Discard the name index, the bean mapping plans and the parameter setters.
+	 * The plans shared with the clones are dropped only by this instance, the
+	 * clones keep them
+	 */
+	void reindex() {
+		index = null;
+		sets = null;
+		plans = null;
+		setters = null;
 	}
 
 	/**
@@ -147,18 +301,17 @@ public class SQLBindings implements Collection<SQLBindNode> {
 	 */
 	public void apply(PreparedStatement pstmt) {
 		try {
-			Iterator<SQLBindNode> iterator = iterator();
-			int i = 1;
-			while (iterator.hasNext()) {
-				SQLBindNode next = iterator.next();
+			if (setters == null || setters.size() != nodes.size()) {
+				setters = new SetterPlan(nodes.size());
+			}
+
+			Parameters parameters = new Parameters(pstmt, setters);
+			for (int slot = 0; slot < nodes.size(); slot++) {
+				SQLBindNode next = nodes.get(slot);
 				if (next.isExclude()) {
 					continue;
 				}
-				Collection<?> values = next.extract();
-				for (Object value : values) {
-					pstmt.setObject(i, value);
-					i++;
-				}
+				parameters.bind(slot, next.value(), next.jdbcType, next.buckets, next.dialect, next.arrayThreshold);
 			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
@@ -173,8 +326,29 @@ public class SQLBindings implements Collection<SQLBindNode> {
 	 * @return iterator
 	 */
 	public Iterator<SQLBindNode> iterator() {
-		Iterator<SQLBindNode> iterator = this.nodes.iterator();
-		return iterator;
+		final Iterator<SQLBindNode> iterator = this.nodes.iterator();
+		return new Iterator<SQLBindNode>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			int slot;
+
+			@Override
+			public SQLBindNode next() {
+				iterator.next();
+				sql.exposeBindings();
+				return own(slot++);
+			}
+
+			@Override
+			public void remove() {
+				iterator.remove();
+				slot--;
+				reindex();
+			}
+		};
 	}
 
 	@Override
@@ -194,21 +368,25 @@ public class SQLBindings implements Collection<SQLBindNode> {
 
 	@Override
 	public Object[] toArray() {
+		ownAll();
 		return nodes.toArray();
 	}
 
 	@Override
 	public <T> T[] toArray(T[] a) {
+		ownAll();
 		return nodes.toArray(a);
 	}
 
 	@Override
 	public boolean add(SQLBindNode e) {
+		reindex();
 		return nodes.add(e);
 	}
 
 	@Override
 	public boolean remove(Object o) {
+		reindex();
 		return nodes.remove(o);
 	}
 
@@ -219,21 +397,336 @@ public class SQLBindings implements Collection<SQLBindNode> {
 
 	@Override
 	public boolean addAll(Collection<? extends SQLBindNode> c) {
+		reindex();
 		return nodes.addAll(c);
 	}
 
 	@Override
 	public boolean removeAll(Collection<?> c) {
+		reindex();
 		return nodes.removeAll(c);
 	}
 
 	@Override
 	public boolean retainAll(Collection<?> c) {
+		reindex();
 		return nodes.retainAll(c);
 	}
 
 	@Override
 	public void clear() {
+		reindex();
 		nodes.clear();
 	}
+
+	// Inner classes /////////////////////////////////////////
+
+	/**
+	 * Parameters of a statement set from the binding slots in order. Used by
+	 * {@link SQLBindings#apply(PreparedStatement)} and the binding contexts of
+	 * the templates
+	 */
+	static final class Parameters extends SQLBindNode.Values<SQLException> {
+		final PreparedStatement pstmt;
+		final SetterPlan setters;
+		/** Index of the next parameter **/
+		int index = 1;
+		/** Slot of the values passed to {@link #add(Object)} **/
+		int slot;
+		/** Declared jdbc type of the slot, may be null **/
+		Integer jdbcType;
+
+		Parameters(PreparedStatement pstmt, SetterPlan setters) {
+			super();
+			this.pstmt = pstmt;
+			this.setters = setters;
+		}
+
+		/**
+		 * Set the parameters of the given binding slot: an array parameter
+		 * for the collections selected by the dialect, otherwise a parameter
+		 * for each placeholder
+		 * 
+		 * @param slot
+		 *            index of the binding slot
+		 * @param value
+		 *            value of the slot
+		 * @param jdbcType
+		 *            declared jdbc type, may be null
+		 * @param buckets
+		 *            bucket sizes, null if not bucketed
+		 * @param dialect
+		 *            array dialect, may be null
+		 * @param arrayThreshold
+		 *            maximum number of the values rendered as placeholders
+		 * @throws SQLException
+		 */
+		void bind(int slot, Object value, Integer jdbcType, int[] buckets, SQLDialect dialect, int arrayThreshold)
+				throws SQLException {
+			Integer arrayType = SQLBindNode.arrayType(value, jdbcType, dialect, arrayThreshold);
+			if (arrayType != null) {
+				Object[] values = value instanceof Object[] ? (Object[]) value : ((Collection<?>) value).toArray();
+				dialect.bind(pstmt, index++, values, arrayType);
+				return;
+			}
+			this.slot = slot;
+			this.jdbcType = jdbcType;
+			SQLBindNode.values(value, buckets, this);
+		}
+
+		@Override
+		void add(Object value) throws SQLException {
+			setters.set(pstmt, index++, slot, jdbcType, value);
+		}
+	}
+
+	/**
+	 * Parameter setters planned for the binding slots by the classes of their
+	 * values. The plan of a slot is immutable and replaced as a whole in an
+	 * atomic array, so a plan shared by the threads using a template is always
+	 * seen complete.
+	 */
+	static final class SetterPlan {
+		/** Plans of the slots, null if nothing is known about a slot yet **/
+		final AtomicReferenceArray<Entry> entries;
+
+		SetterPlan(int size) {
+			super();
+			this.entries = new AtomicReferenceArray<Entry>(size);
+		}
+
+		/**
+		 * 
+		 * @return number of the slots
+		 */
+		int size() {
+			return entries.length();
+		}
+
+		/**
+		 * Plan the slot for the class of the given value, e.g. the declared
+		 * value of a compiled binding
+		 * 
+		 * @param slot
+		 *            index of the binding slot
+		 * @param value
+		 *            a single value of the slot, may be null
+		 */
+		void plan(int slot, Object value) {
+			if (value != null) {
+				entries.set(slot, new Entry(value.getClass(), Setter.of(value.getClass())));
+			}
+		}
+
+		/**
+		 * Set the parameter with the setter planned for the binding slot
+		 * 
+		 * @param pstmt
+		 *            target statement
+		 * @param index
+		 *            parameter index
+		 * @param slot
+		 *            index of the binding slot
+		 * @param jdbcType
+		 *            declared jdbc type of the slot, may be null
+		 * @param value
+		 *            parameter value
+		 * @throws SQLException
+		 */
+		void set(PreparedStatement pstmt, int index, int slot, Integer jdbcType, Object value) throws SQLException {
+			Entry entry = entries.get(slot);
+			if (value == null) {
+				if (jdbcType != null) {
+					pstmt.setNull(index, jdbcType);
+					return;
+				}
+				if (entry == null || entry.sqlType == Types.OTHER) {
+					// no typed value seen yet, ask the driver once for the slot
+					entry = new Entry(entry, parameterType(pstmt, index));
+					entries.set(slot, entry);
+				}
+				pstmt.setNull(index, entry.sqlType);
+				return;
+			}
+
+			if (entry == null || entry.type != value.getClass()) {
+				entry = new Entry(value.getClass(), Setter.of(value.getClass()));
+				entries.set(slot, entry);
+			}
+			if (entry.setter == Setter.OBJECT && jdbcType != null) {
+				pstmt.setObject(index, value, jdbcType);
+			} else {
+				entry.setter.set(pstmt, index, value);
+			}
+		}
+
+		/**
+		 * 
+		 * @return sql type of the parameter described by the driver,
+		 *         {@link Types#NULL} if the driver can not describe it
+		 */
+		private static int parameterType(PreparedStatement pstmt, int index) {
+			try {
+				int sqlType = pstmt.getParameterMetaData().getParameterType(index);
+				return sqlType == Types.OTHER ? Types.NULL : sqlType;
+			} catch (SQLException e) {
+				return Types.NULL;
+			} catch (RuntimeException e) {
+				return Types.NULL;
+			}
+		}
+
+		/**
+		 * Setter planned for a binding slot
+		 */
+		static final class Entry {
+			/** Class of the values, null if only null values seen **/
+			final Class<?> type;
+			/** Setter of the values, null if only null values seen **/
+			final Setter setter;
+			/** Sql type used for the null values **/
+			final int sqlType;
+
+			Entry(Class<?> type, Setter setter) {
+				super();
+				this.type = type;
+				this.setter = setter;
+				this.sqlType = setter.sqlType;
+			}
+
+			/**
+			 * Construct a copy of the given entry with the sql type of the null
+			 * values described by the driver
+			 */
+			Entry(Entry entry, int sqlType) {
+				super();
+				this.type = entry == null ? null : entry.type;
+				this.setter = entry == null ? null : entry.setter;
+				this.sqlType = sqlType;
+			}
+		}
+	}
+
+	/**
+	 * Type specific parameter setters
+	 */
+	enum Setter {
+		STRING(String.class, Types.VARCHAR) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setString(index, (String) value);
+			}
+		},
+		LONG(Long.class, Types.BIGINT) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setLong(index, (Long) value);
+			}
+		},
+		INTEGER(Integer.class, Types.INTEGER) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setInt(index, (Integer) value);
+			}
+		},
+		SHORT(Short.class, Types.SMALLINT) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setShort(index, (Short) value);
+			}
+		},
+		DOUBLE(Double.class, Types.DOUBLE) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setDouble(index, (Double) value);
+			}
+		},
+		FLOAT(Float.class, Types.REAL) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setFloat(index, (Float) value);
+			}
+		},
+		BIGDECIMAL(BigDecimal.class, Types.NUMERIC) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setBigDecimal(index, (BigDecimal) value);
+			}
+		},
+		BOOLEAN(Boolean.class, Types.BOOLEAN) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setBoolean(index, (Boolean) value);
+			}
+		},
+		TIMESTAMP(Timestamp.class, Types.TIMESTAMP) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setTimestamp(index, (Timestamp) value);
+			}
+		},
+		DATE(java.sql.Date.class, Types.DATE) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setDate(index, (java.sql.Date) value);
+			}
+		},
+		TIME(Time.class, Types.TIME) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setTime(index, (Time) value);
+			}
+		},
+		UTILDATE(java.util.Date.class, Types.TIMESTAMP) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setTimestamp(index, new Timestamp(((java.util.Date) value).getTime()));
+			}
+		},
+		BYTES(byte[].class, Types.VARBINARY) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setBytes(index, (byte[]) value);
+			}
+		},
+		OBJECT(Object.class, Types.OTHER) {
+			@Override
+			void set(PreparedStatement pstmt, int index, Object value) throws SQLException {
+				pstmt.setObject(index, value);
+			}
+		};
+
+		private static final Map<Class<?>, Setter> SETTERS = new HashMap<Class<?>, Setter>();
+		static {
+			for (Setter setter : values()) {
+				SETTERS.put(setter.type, setter);
+			}
+		}
+
+		/** Value type handled by the setter **/
+		final Class<?> type;
+		/** Sql type used for the null values **/
+		final int sqlType;
+
+		Setter(Class<?> type, int sqlType) {
+			this.type = type;
+			this.sqlType = sqlType;
+		}
+
+		/**
+		 * 
+		 * @param type
+		 *            value type
+		 * @return the setter for the given value type
+		 */
+		static Setter of(Class<?> type) {
+			Setter setter = SETTERS.get(type);
+			if (setter != null) {
+				return setter;
+			}
+			return java.util.Date.class.isAssignableFrom(type) ? UTILDATE : OBJECT;
+		}
+
+		abstract void set(PreparedStatement pstmt, int index, Object value) throws SQLException;
+	}
 }
@@ -0,0 +1,445 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tr.com.olives4j.sql.SQLReader.Options;
+import tr.com.olives4j.stree.StreeAnnotation;
+import tr.com.olives4j.stree.StreeClause;
+import tr.com.olives4j.stree.StreeGroup;
+import tr.com.olives4j.stree.StreeNode;
+
+/**
+ * Cache of the parsed sql scripts in a compact binary form, keyed by the hash
+ * of the script content and the reader options. Decoding a cached script reads
+ * the string table and the node kinds in a single pass without tokenizing
+ * the sql text.
+ * 
+ * <p>
+ * The binary form holds a string table followed by the statements. Each
+ * statement holds its name, its nodes in tree order as kinds with their
+ * string indexes and binding metadata, and the slots of its bindings. Only
+ * the nodes created by {@link SQLReader} are supported. The parameter
+ * statistics of the reader options are not updated when a script is loaded
+ * from the cache, and the scripts read with parameters are never cached.
+ * 
+ * <pre>
+ * SQLCache cache = new SQLCache(Paths.get("build/sql-cache"));
+ * SQLCollection sqls = SQLReader.read(path, charset, null, cache);
+ * </pre>
+ * 
+ * @author omer.dogan
+ * 
+ */
+public class SQLCache {
+	/** Leading bytes of a cache file, "SQLC" **/
+	private static final int MAGIC = 0x53514C43;
+	/** Version of the binary form **/
+	private static final int VERSION = 1;
+	/** Extension of the cache files **/
+	private static final String EXTENSION = ".sqlc";
+	/** Charset of the string table **/
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** Node kinds **/
+	private static final byte CLAUSE = 1;
+	private static final byte GROUP = 2;
+	private static final byte BIND = 3;
+	private static final byte ANNOTATION = 4;
+
+	/** Node flags **/
+	private static final int EXCLUDE = 1;
+	private static final int OPTIONAL = 2;
+	private static final int INLINE = 4;
+	private static final int NAMED = 8;
+
+	/** Default value types **/
+	private static final byte NULL = 0;
+	private static final byte STRING = 1;
+	private static final byte LONG = 2;
+	private static final byte DOUBLE = 3;
+	private static final byte BOOLEAN = 4;
+
+	/** Directory of the cache files **/
+	final Path directory;
+
+	/**
+	 * 
+	 * @param directory
+	 *            directory of the cache files, created if it does not exist
+	 */
+	public SQLCache(Path directory) {
+		super();
+		this.directory = directory;
+	}
+
+	/**
+	 * 
+	 * @param content
+	 *            script content
+	 * @param charset
+	 *            charset of the content
+	 * @param options
+	 *            reader options
+	 * @return hex encoded hash of the content and the options affecting the
+	 *         parser output
+	 */
+	public static String key(byte[] content, Charset charset, Options options) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			StringBuilder settings = new StringBuilder();
+			settings.append(VERSION).append('|').append(charset.name());
+			settings.append('|').append(options.keepComments).append('|').append(options.keepNewLines);
+			settings.append('|').append(options.disableFormat).append('|').append(options.wordSeperators);
+			settings.append('|').append(options.plsqlStart.pattern()).append('|').append(options.plsqlStart.flags());
+			digest.update(settings.toString().getBytes(UTF8));
+			digest.update(content);
+
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) {
+				key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * 
+	 * @param key
+	 *            cache key
+	 * @return the cached statements, null if the key is not cached or the
+	 *         cache file is not readable
+	 */
+	public SQLCollection get(String key) {
+		byte[] data;
+		try {
+			data = Files.readAllBytes(directory.resolve(key + EXTENSION));
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read the sql cache : " + key, e);
+		}
+
+		try {
+			return decode(data);
+		} catch (RuntimeException e) {
+			// stale or damaged file, it is replaced by the next put
+			return null;
+		}
+	}
+
+	/**
+	 * Write the statements to the cache. The file is written aside and moved
+	 * into place, so a concurrent reader sees either the whole file or none.
+	 * 
+	 * @param key
+	 *            cache key
+	 * @param sqls
+	 *            parsed statements
+	 * @return false if the statements hold nodes which can not be encoded
+	 */
+	public boolean put(String key, SQLCollection sqls) {
+		byte[] data;
+		try {
+			data = encode(sqls);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+
+		try {
+			Files.createDirectories(directory);
+			Path target = directory.resolve(key + EXTENSION);
+			Path temp = Files.createTempFile(directory, key, ".tmp");
+			try {
+				Files.write(temp, data);
+				try {
+					Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+			return true;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write the sql cache : " + key, e);
+		}
+	}
+
+	/**
+	 * 
+	 * @param sqls
+	 *            statements to encode
+	 * @return binary form of the statements
+	 * @throws IllegalArgumentException
+	 *             if a statement holds a node which can not be encoded
+	 */
+	public static byte[] encode(SQLCollection sqls) {
+		try {
+			Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(body);
+
+			out.writeInt(sqls.size());
+			for (SQL sql : sqls) {
+				boolean named = SQLReader.isNamed(sql);
+				out.writeByte(named ? NAMED : 0);
+				out.writeInt(named ? string(strings, sql.name()) : -1);
+
+				Map<SQLBindNode, Integer> binds = new IdentityHashMap<SQLBindNode, Integer>();
+				encode(out, strings, binds, SQL.childrenOf(sql));
+
+				out.writeInt(sql.bindings.nodes.size());
+				for (SQLBindNode bind : sql.bindings.nodes) {
+					Integer ordinal = binds.get(bind);
+					if (ordinal == null) {
+						throw new IllegalArgumentException("Binding is not in the sql tree : " + bind);
+					}
+					out.writeInt(ordinal);
+				}
+			}
+			out.flush();
+
+			ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + strings.size() * 16 + 12);
+			DataOutputStream header = new DataOutputStream(result);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeInt(strings.size());
+			for (String string : strings.keySet()) {
+				byte[] bytes = string.getBytes(UTF8);
+				header.writeInt(bytes.length);
+				header.write(bytes);
+			}
+			header.flush();
+			body.writeTo(result);
+			return result.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Encode the given nodes in tree order
+	 */
+	private static void encode(DataOutputStream out, Map<String, Integer> strings, Map<SQLBindNode, Integer> binds,
+			List<StreeNode> nodes) throws IOException {
+		out.writeInt(nodes.size());
+		for (StreeNode node : nodes) {
+			int flags = node.isExclude() ? EXCLUDE : 0;
+			if (node.getClass() == StreeClause.class) {
+				CharSequence content = ((StreeClause) node).content();
+				out.writeByte(CLAUSE);
+				out.writeByte(flags);
+				out.writeInt(content == null ? -1 : string(strings, content.toString()));
+			} else if (node.getClass() == StreeGroup.class) {
+				// the exclusion of a group is computed from its child nodes
+				out.writeByte(GROUP);
+				out.writeByte(0);
+				encode(out, strings, binds, SQL.childrenOf((StreeGroup) node));
+			} else if (node.getClass() == StreeAnnotation.class) {
+				out.writeByte(ANNOTATION);
+				out.writeByte(flags);
+				out.writeInt(string(strings, ((StreeAnnotation) node).expression));
+			} else if (node.getClass() == SQLBindNode.class) {
+				SQLBindNode bind = (SQLBindNode) node;
+				if (bind.value != null || bind.buckets != null || bind.dialect != null) {
+					throw new IllegalArgumentException("Binding state can not be cached : " + bind);
+				}
+				binds.put(bind, binds.size());
+				flags = bind.excludeFlag() ? EXCLUDE : 0;
+				flags |= bind.optional ? OPTIONAL : 0;
+				flags |= bind.inline ? INLINE : 0;
+				out.writeByte(BIND);
+				out.writeByte(flags);
+				out.writeInt(bind.name == null ? -1 : string(strings, bind.name));
+				out.writeInt(bind.jdbcType == null ? Integer.MIN_VALUE : bind.jdbcType);
+				out.writeInt(bind.seperator == null ? -1 : string(strings, bind.seperator));
+				Object value = bind.defaultValue;
+				if (value == null) {
+					out.writeByte(NULL);
+				} else if (value instanceof String) {
+					out.writeByte(STRING);
+					out.writeInt(string(strings, (String) value));
+				} else if (value instanceof Long) {
+					out.writeByte(LONG);
+					out.writeLong((Long) value);
+				} else if (value instanceof Double) {
+					out.writeByte(DOUBLE);
+					out.writeDouble((Double) value);
+				} else if (value instanceof Boolean) {
+					out.writeByte(BOOLEAN);
+					out.writeBoolean((Boolean) value);
+				} else {
+					throw new IllegalArgumentException("Default value can not be cached : " + bind);
+				}
+			} else {
+				throw new IllegalArgumentException("Node can not be cached : " + node.getClass().getName());
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param data
+	 *            binary form of the statements
+	 * @return decoded statements
+	 * @throws RuntimeException
+	 *             if the data is not a valid binary form
+	 */
+	public static SQLCollection decode(byte[] data) {
+		try {
+			ByteBuffer in = ByteBuffer.wrap(data);
+			if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+				throw new RuntimeException("Not a sql cache file or an unsupported version");
+			}
+
+			String[] strings = new String[in.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				int length = in.getInt();
+				strings[i] = new String(data, in.position(), length, UTF8);
+				in.position(in.position() + length);
+			}
+
+			int count = in.getInt();
+			List<SQL> sqls = new ArrayList<SQL>(count);
+			List<SQLBindNode> binds = new ArrayList<SQLBindNode>();
+			for (int i = 0; i < count; i++) {
+				SQL sql = new SQL();
+				int flags = in.get();
+				int name = in.getInt();
+				if ((flags & NAMED) != 0) {
+					sql.name(strings[name]);
+				}
+
+				binds.clear();
+				int size = in.getInt();
+				for (int j = 0; j < size; j++) {
+					sql.restore(decode(in, strings, binds));
+				}
+
+				int slots = in.getInt();
+				for (int j = 0; j < slots; j++) {
+					sql.bindings.nodes.add(binds.get(in.getInt()));
+				}
+				sqls.add(sql);
+			}
+			return new SQLCollection(sqls);
+		} catch (BufferUnderflowException e) {
+			throw new RuntimeException("Truncated sql cache file", e);
+		} catch (IndexOutOfBoundsException e) {
+			throw new RuntimeException("Damaged sql cache file", e);
+		}
+	}
+
+	/**
+	 * Decode the next node and its descendants
+	 */
+	private static StreeNode decode(ByteBuffer in, String[] strings, List<SQLBindNode> binds) {
+		byte kind = in.get();
+		int flags = in.get();
+		StreeNode node;
+		switch (kind) {
+		case CLAUSE: {
+			int content = in.getInt();
+			node = content < 0 ? new StreeClause() : new StreeClause(strings[content]);
+			break;
+		}
+		case GROUP: {
+			int size = in.getInt();
+			List<StreeNode> nodes = new ArrayList<StreeNode>(size);
+			for (int i = 0; i < size; i++) {
+				nodes.add(decode(in, strings, binds));
+			}
+			node = new StreeGroup(nodes);
+			break;
+		}
+		case ANNOTATION:
+			node = new StreeAnnotation(strings[in.getInt()]);
+			break;
+		case BIND: {
+			SQLBindNode bind = new SQLBindNode();
+			int name = in.getInt();
+			bind.name = name < 0 ? null : strings[name];
+			bind.optional = (flags & OPTIONAL) != 0;
+			bind.inline = (flags & INLINE) != 0;
+			int jdbcType = in.getInt();
+			bind.jdbcType = jdbcType == Integer.MIN_VALUE ? null : jdbcType;
+			int seperator = in.getInt();
+			bind.seperator = seperator < 0 ? null : strings[seperator];
+			switch (in.get()) {
+			case STRING:
+				bind.defaultValue = strings[in.getInt()];
+				break;
+			case LONG:
+				bind.defaultValue = in.getLong();
+				break;
+			case DOUBLE:
+				bind.defaultValue = in.getDouble();
+				break;
+			case BOOLEAN:
+				bind.defaultValue = in.get() != 0;
+				break;
+			default:
+				break;
+			}
+			binds.add(bind);
+			node = bind;
+			break;
+		}
+		default:
+			throw new RuntimeException("Unknown node kind in sql cache file : " + kind);
+		}
+
+		if ((flags & EXCLUDE) != 0) {
+			node.exclude(true);
+		}
+		return node;
+	}
+
+	/**
+	 * 
+	 * @return index of the string in the string table
+	 */
+	private static int string(Map<String, Integer> strings, String string) {
+		Integer index = strings.get(string);
+		if (index == null) {
+			index = strings.size();
+			strings.put(string, index);
+		}
+		return index;
+	}
+}
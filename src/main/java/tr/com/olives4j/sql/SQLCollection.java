@@ -18,19 +18,29 @@ package tr.com.olives4j.sql;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
+ * Statements are indexed by their names as they are added, an unnamed
+ * statement is indexed as "SQL-n" where n is its order among the unnamed ones.
+ * Names should be set before adding a statement, renaming an element of the
+ * collection is not reflected to the index.
  * 
  * @author omer.dogan
  * 
  */
 public class SQLCollection implements Collection<SQL>, Cloneable {
 	ArrayList<SQL> sqls = new ArrayList<SQL>();
+	/** Statements by name in insertion order **/
+	final LinkedHashMap<String, SQL> index = new LinkedHashMap<String, SQL>();
+	/** Read only view of the index **/
+	final Map<String, SQL> view = Collections.unmodifiableMap(index);
+	/** Number of the unnamed statements indexed **/
+	int unnamed;
 
 	/**
 	 * 
@@ -43,7 +53,7 @@ public class SQLCollection implements Collection<SQL>, Cloneable {
 	 * @param sqls
 	 */
 	public SQLCollection(Collection<SQL> sqls) {
-		this.sqls.addAll(sqls);
+		addAll(sqls);
 	}
 
 	/**
@@ -69,30 +79,33 @@ public class SQLCollection implements Collection<SQL>, Cloneable {
 	 */
 	@Override
 	public Iterator<SQL> iterator() {
-		return sqls.iterator();
+		final Iterator<SQL> iterator = sqls.iterator();
+		return new Iterator<SQL>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public SQL next() {
+				return iterator.next();
+			}
+
+			@Override
+			public void remove() {
+				iterator.remove();
+				reindex();
+			}
+		};
 	}
 
 	/**
 	 * Return the SQL collection as named map
 	 * 
-	 * @return
+	 * @return read only view of the statements by name
 	 */
 	public Map<String, SQL> asMap() {
-		HashMap<String, SQL> map = new LinkedHashMap<String, SQL>();
-		int i = 1;
-		for (SQL sql : sqls) {
-			String name = sql.name();
-			if (name == null) {
-				name = "SQL-" + i;
-				i++;
-			}
-			SQL old = map.put(name, sql);
-			if (old != null) {
-				throw new RuntimeException(
-						"Could not convert sql collection to map, Dublicate keys found! Key:" + name);
-			}
-		}
-		return map;
+		return view;
 	}
 
 	/**
@@ -102,12 +115,41 @@ public class SQLCollection implements Collection<SQL>, Cloneable {
 	 * @return
 	 */
 	public SQL get(String name) {
-		for (SQL sql : this.sqls) {
-			if (name.equals(sql.name())) {
-				return sql;
-			}
+		SQL sql = index.get(name);
+		if (sql == null || !name.equals(sql.name())) {
+			return null;
+		}
+		return sql;
+	}
+
+	/**
+	 * Add the statement to the name index
+	 * 
+	 * @param sql
+	 */
+	private void index(SQL sql) {
+		String name = sql.name();
+		if (name == null) {
+			name = "SQL-" + (unnamed + 1);
+		}
+		if (index.containsKey(name)) {
+			throw new RuntimeException("Could not add sql to the collection, Dublicate keys found! Key:" + name);
+		}
+		if (sql.name() == null) {
+			unnamed++;
+		}
+		index.put(name, sql);
+	}
+
+	/**
+	 * Rebuild the name index after removals
+	 */
+	private void reindex() {
+		index.clear();
+		unnamed = 0;
+		for (SQL sql : sqls) {
+			index(sql);
 		}
-		return null;
 	}
 
 	/**
@@ -160,12 +202,17 @@ public class SQLCollection implements Collection<SQL>, Cloneable {
 
 	@Override
 	public boolean add(SQL e) {
+		index(e);
 		return sqls.add(e);
 	}
 
 	@Override
 	public boolean remove(Object o) {
-		return sqls.remove(o);
+		if (!sqls.remove(o)) {
+			return false;
+		}
+		reindex();
+		return true;
 	}
 
 	@Override
@@ -175,22 +222,36 @@ public class SQLCollection implements Collection<SQL>, Cloneable {
 
 	@Override
 	public boolean addAll(Collection<? extends SQL> c) {
-		return sqls.addAll(c);
+		boolean changed = false;
+		for (SQL sql : c) {
+			changed |= add(sql);
+		}
+		return changed;
 	}
 
 	@Override
 	public boolean removeAll(Collection<?> c) {
-		return sqls.removeAll(c);
+		if (!sqls.removeAll(c)) {
+			return false;
+		}
+		reindex();
+		return true;
 	}
 
 	@Override
 	public boolean retainAll(Collection<?> c) {
-		return sqls.retainAll(c);
+		if (!sqls.retainAll(c)) {
+			return false;
+		}
+		reindex();
+		return true;
 	}
 
 	@Override
 	public void clear() {
 		sqls.clear();
+		index.clear();
+		unnamed = 0;
 	}
 
 	@Override
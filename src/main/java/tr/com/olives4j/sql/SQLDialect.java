@@ -0,0 +1,143 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Database specific rendering of the collection bindings as a single array
+ * parameter. The rendered expression follows an IN keyword in place of the
+ * placeholder list, e.g. <code>id in :ids</code> is rendered as
+ * <code>id in (SELECT UNNEST(?))</code> for PostgreSQL.
+ * 
+ * @see SQLBindNode#arrays(SQLDialect, int)
+ * @author omer.dogan
+ * 
+ */
+public enum SQLDialect {
+	/**
+	 * Uses a table function over an Object[] parameter, H2 does not support
+	 * {@link java.sql.Connection#createArrayOf(String, Object[])}
+	 */
+	H2 {
+		@Override
+		void render(StringBuilder buffer, int sqlType) {
+			buffer.append("(SELECT X FROM TABLE(X ").append(typeName(sqlType)).append(" = ?))");
+		}
+
+		@Override
+		void bind(PreparedStatement pstmt, int index, Object[] values, int sqlType) throws SQLException {
+			pstmt.setObject(index, values);
+		}
+	},
+	/**
+	 * Uses UNNEST over a sql array parameter
+	 */
+	HSQLDB {
+		@Override
+		void render(StringBuilder buffer, int sqlType) {
+			buffer.append("(UNNEST(?))");
+		}
+	},
+	/**
+	 * Uses UNNEST over a sql array parameter
+	 */
+	POSTGRESQL {
+		@Override
+		void render(StringBuilder buffer, int sqlType) {
+			buffer.append("(SELECT UNNEST(?))");
+		}
+
+		@Override
+		String typeName(int sqlType) {
+			switch (sqlType) {
+			case Types.DOUBLE:
+				return "float8";
+			case Types.REAL:
+				return "float4";
+			default:
+				return super.typeName(sqlType);
+			}
+		}
+	};
+
+	/**
+	 * Render the array expression
+	 * 
+	 * @param buffer
+	 *            target buffer
+	 * @param sqlType
+	 *            sql type of the elements
+	 */
+	abstract void render(StringBuilder buffer, int sqlType);
+
+	/**
+	 * Bind the values as a single array parameter
+	 * 
+	 * @param pstmt
+	 *            target statement
+	 * @param index
+	 *            parameter index
+	 * @param values
+	 *            collection values
+	 * @param sqlType
+	 *            sql type of the elements
+	 * @throws SQLException
+	 */
+	void bind(PreparedStatement pstmt, int index, Object[] values, int sqlType) throws SQLException {
+		pstmt.setArray(index, pstmt.getConnection().createArrayOf(typeName(sqlType), values));
+	}
+
+	/**
+	 * 
+	 * @param sqlType
+	 *            jdbc type
+	 * @return database type name of the array elements
+	 */
+	String typeName(int sqlType) {
+		switch (sqlType) {
+		case Types.BIGINT:
+			return "BIGINT";
+		case Types.INTEGER:
+			return "INTEGER";
+		case Types.SMALLINT:
+		case Types.TINYINT:
+			return "SMALLINT";
+		case Types.DOUBLE:
+		case Types.FLOAT:
+			return "DOUBLE";
+		case Types.REAL:
+			return "REAL";
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return "NUMERIC";
+		case Types.BOOLEAN:
+		case Types.BIT:
+			return "BOOLEAN";
+		case Types.TIMESTAMP:
+			return "TIMESTAMP";
+		case Types.DATE:
+			return "DATE";
+		case Types.TIME:
+			return "TIME";
+		default:
+			return "VARCHAR";
+		}
+	}
+}
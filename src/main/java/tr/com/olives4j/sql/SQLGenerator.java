@@ -0,0 +1,626 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tr.com.olives4j.sql.SQLReader.Options;
+import tr.com.olives4j.stree.StreeAnnotation;
+import tr.com.olives4j.stree.StreeClause;
+import tr.com.olives4j.stree.StreeGroup;
+import tr.com.olives4j.stree.StreeNode;
+
+/**
+ * Generate java classes from the sql scripts, so the named statements are
+ * built without parsing at runtime and a renamed statement or binding breaks
+ * the compilation of its callers.
+ * 
+ * <p>
+ * A class is generated for each script holding a named statement, the class
+ * is named after the script and placed in the package of its directory. For
+ * each named statement the class holds a constant of its name, a factory
+ * method and a nested builder class. The builder holds the statement nodes
+ * as precomputed text segments and a setter for each binding name, typed by
+ * the default value of the binding when it is a number or a boolean. The
+ * statement nodes are built on the first use of the builder class and each
+ * builder works on a clone of them.
+ * 
+ * <pre>
+ * -- com/acme/customer.sql
+ * --&#64;NAMED search_customer
+ * select * from customer where store_id = 1 --&#64;:store_id optional
+ * 
+ * SQL sql = Customer.searchCustomer().storeId(5).sql();
+ * </pre>
+ * 
+ * It is run by the generateSql task of the build or from the command line
+ * 
+ * <pre>
+ * java tr.com.olives4j.sql.SQLGenerator src/main/resources build/generated-sources/sql [base package]
+ * </pre>
+ * 
+ * @author omer.dogan
+ * 
+ */
+public class SQLGenerator {
+	/** Extension of the sql scripts **/
+	private static final String EXTENSION = ".sql";
+	/** Longest text segment written as a single string literal **/
+	private static final int MAX_LITERAL = 8192;
+	/** Java keywords and literals, an identifier matching one is suffixed **/
+	private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList("abstract", "assert",
+			"boolean", "break", "byte", "case", "catch", "char", "class", "const", "continue", "default", "do",
+			"double", "else", "enum", "extends", "final", "finally", "float", "for", "goto", "if", "implements",
+			"import", "instanceof", "int", "interface", "long", "native", "new", "package", "private",
+			"protected", "public", "return", "short", "static", "strictfp", "super", "switch", "synchronized",
+			"this", "throw", "throws", "transient", "try", "void", "volatile", "while", "true", "false", "null"));
+	/** Methods of a builder, a setter matching one is suffixed **/
+	private static final Set<String> RESERVED = new HashSet<String>(Arrays.asList("sql", "toString", "hashCode",
+			"equals", "getClass", "notify", "notifyAll", "wait", "clone", "finalize"));
+
+	/** Package prefix of the generated classes **/
+	final String basePackage;
+	/** Charset of the sql scripts **/
+	Charset charset = Charset.forName("UTF-8");
+	/** Reader options **/
+	Options options = new Options();
+
+	/**
+	 * 
+	 * @param basePackage
+	 *            package prefix of the generated classes, null or empty to
+	 *            use the directories of the scripts only
+	 */
+	public SQLGenerator(String basePackage) {
+		super();
+		this.basePackage = basePackage == null ? "" : basePackage;
+	}
+
+	/**
+	 * 
+	 * @param charset
+	 *            charset of the sql scripts, UTF-8 by default
+	 * @return this
+	 */
+	public SQLGenerator charset(Charset charset) {
+		this.charset = charset;
+		return this;
+	}
+
+	/**
+	 * 
+	 * @param options
+	 *            reader options
+	 * @return this
+	 */
+	public SQLGenerator options(Options options) {
+		this.options = options;
+		return this;
+	}
+
+	/**
+	 * Generate the classes of the sql scripts in the source directory and its
+	 * sub directories. A file is written only if its content is changed.
+	 * 
+	 * @param sourceDirectory
+	 *            root directory of the sql scripts
+	 * @param outputDirectory
+	 *            root directory of the generated sources
+	 * @return generated source files
+	 */
+	public List<Path> generate(final Path sourceDirectory, final Path outputDirectory) {
+		final List<Path> scripts = new ArrayList<Path>();
+		try {
+			if (Files.isDirectory(sourceDirectory)) {
+				Files.walkFileTree(sourceDirectory, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+						if (file.getFileName().toString().endsWith(EXTENSION)) {
+							scripts.add(file);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			}
+			Collections.sort(scripts);
+
+			List<Path> generated = new ArrayList<Path>();
+			for (Path script : scripts) {
+				Path relative = sourceDirectory.relativize(script);
+				String packageName = basePackage;
+				for (int i = 0; i < relative.getNameCount() - 1; i++) {
+					String name = relative.getName(i).toString();
+					if (!isIdentifier(name)) {
+						throw new RuntimeException("Directory is not a valid package name : " + name + " of " + script);
+					}
+					packageName = packageName.isEmpty() ? name : packageName + "." + name;
+				}
+				String fileName = relative.getFileName().toString();
+				String className = identifier(fileName.substring(0, fileName.length() - EXTENSION.length()), true);
+
+				String source;
+				try {
+					SQLCollection sqls = SQLReader.read(script, charset, options.copy());
+					source = generate(packageName, className, relative.toString().replace('\\', '/'), sqls);
+				} catch (RuntimeException e) {
+					throw new RuntimeException("Could not generate the class of " + script + " : " + e.getMessage(), e);
+				}
+				if (source == null) {
+					continue;
+				}
+
+				Path target = outputDirectory.resolve(packageName.replace('.', '/')).resolve(className + ".java");
+				byte[] content = source.getBytes(Charset.forName("UTF-8"));
+				if (!Files.exists(target) || !Arrays.equals(content, Files.readAllBytes(target))) {
+					Files.createDirectories(target.getParent());
+					Files.write(target, content);
+				}
+				generated.add(target);
+			}
+			return generated;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not generate the sql classes of " + sourceDirectory, e);
+		}
+	}
+
+	/**
+	 * 
+	 * @param packageName
+	 *            package of the class, empty for the default package
+	 * @param className
+	 *            simple name of the class
+	 * @param source
+	 *            path of the script, written to the comments
+	 * @param sqls
+	 *            statements of the script
+	 * @return java source of the class, null if none of the statements is
+	 *         named
+	 */
+	public String generate(String packageName, String className, String source, SQLCollection sqls) {
+		Map<String, SQL> named = new LinkedHashMap<String, SQL>();
+		Set<String> identifiers = new HashSet<String>();
+		identifiers.add(className);
+		for (SQL sql : sqls) {
+			if (!SQLReader.isNamed(sql)) {
+				continue;
+			}
+			String name = identifier(sql.name(), true);
+			if (!identifiers.add(name) || !identifiers.add(constant(sql.name()))) {
+				throw new RuntimeException("Statement name clashes with another statement : " + sql.name());
+			}
+			named.put(name, sql);
+		}
+		if (named.isEmpty()) {
+			return null;
+		}
+
+		StringBuilder out = new StringBuilder();
+		out.append("// Generated by SQLGenerator from ").append(source).append(", do not edit\n");
+		if (!packageName.isEmpty()) {
+			out.append("package ").append(packageName).append(";\n");
+		}
+		out.append("\n");
+		out.append("import java.util.Arrays;\n");
+		out.append("\n");
+		out.append("import tr.com.olives4j.sql.SQL;\n");
+		out.append("import tr.com.olives4j.sql.SQLBindNode;\n");
+		out.append("import tr.com.olives4j.stree.StreeAnnotation;\n");
+		out.append("import tr.com.olives4j.stree.StreeClause;\n");
+		out.append("import tr.com.olives4j.stree.StreeGroup;\n");
+		out.append("import tr.com.olives4j.stree.StreeNode;\n");
+		out.append("\n");
+		out.append("/**\n");
+		out.append(" * Named statements of ").append(comment(source)).append("\n");
+		out.append(" */\n");
+		out.append("@SuppressWarnings(\"unused\")\n");
+		out.append("public final class ").append(className).append(" {\n");
+		for (SQL sql : named.values()) {
+			out.append("\t/** Name of the ").append(comment(sql.name())).append(" statement **/\n");
+			out.append("\tpublic static final String ").append(constant(sql.name())).append(" = ");
+			literal(out, sql.name());
+			out.append(";\n");
+		}
+		out.append("\n");
+		out.append("\tprivate ").append(className).append("() {\n");
+		out.append("\t}\n");
+
+		for (Map.Entry<String, SQL> entry : named.entrySet()) {
+			String name = entry.getKey();
+			out.append("\n");
+			out.append("\t/**\n");
+			out.append("\t * \n");
+			out.append("\t * @return a builder of a new ").append(comment(entry.getValue().name()))
+					.append(" statement\n");
+			out.append("\t */\n");
+			out.append("\tpublic static ").append(name).append(" ").append(identifier(entry.getValue().name(), false))
+					.append("() {\n");
+			out.append("\t\treturn new ").append(name).append("(").append(name).append(".PROTOTYPE.clone());\n");
+			out.append("\t}\n");
+		}
+
+		for (Map.Entry<String, SQL> entry : named.entrySet()) {
+			out.append("\n");
+			builder(out, entry.getKey(), entry.getValue());
+		}
+
+		out.append("\n");
+		out.append("\tprivate static SQLBindNode bind(String name, boolean optional, Object defaultValue) {\n");
+		out.append("\t\tSQLBindNode bind = new SQLBindNode().name(name);\n");
+		out.append("\t\tbind.defaultValue(defaultValue);\n");
+		out.append("\t\tif (optional) {\n");
+		out.append("\t\t\tbind.optional();\n");
+		out.append("\t\t}\n");
+		out.append("\t\treturn bind;\n");
+		out.append("\t}\n");
+		out.append("}\n");
+		return out.toString();
+	}
+
+	/**
+	 * Append the builder class of the statement
+	 */
+	private void builder(StringBuilder out, String className, SQL sql) {
+		Map<SQLBindNode, Integer> ordinals = new IdentityHashMap<SQLBindNode, Integer>();
+		StringBuilder nodes = new StringBuilder();
+		List<StreeNode> children = SQL.childrenOf(sql);
+		for (int i = 0; i < children.size(); i++) {
+			nodes.append("\t\t\t\t");
+			node(nodes, children.get(i), ordinals, 4);
+			nodes.append(i < children.size() - 1 ? ",\n" : "\n");
+		}
+
+		// setters by binding name in slot order, typed if all the default
+		// values of the name are numbers or booleans
+		StringBuilder slots = new StringBuilder();
+		Map<String, String> types = new LinkedHashMap<String, String>();
+		for (SQLBindNode bind : sql.bindings.nodes) {
+			Integer ordinal = ordinals.get(bind);
+			if (ordinal == null) {
+				throw new IllegalArgumentException("Binding is not in the sql tree : " + bind);
+			}
+			slots.append(slots.length() == 0 ? " " : ", ").append(ordinal);
+			if (bind.name == null) {
+				continue;
+			}
+			String type = type(bind.defaultValue);
+			String previous = types.get(bind.name);
+			types.put(bind.name, previous == null || previous.equals(type) ? type : "Object");
+		}
+
+		out.append("\t/**\n");
+		out.append("\t * Builder of the ").append(comment(sql.name())).append(" statement\n");
+		out.append("\t */\n");
+		out.append("\tpublic static final class ").append(className).append(" {\n");
+		out.append("\t\tstatic final SQL PROTOTYPE = SQL.restore(").append(constant(sql.name()))
+				.append(", new StreeNode[] {\n");
+		out.append(nodes);
+		out.append("\t\t}, new int[] {").append(slots).append(slots.length() == 0 ? "" : " ").append("});\n");
+		out.append("\n");
+		out.append("\t\tfinal SQL sql;\n");
+		out.append("\n");
+		out.append("\t\t").append(className).append("(SQL sql) {\n");
+		out.append("\t\t\tthis.sql = sql;\n");
+		out.append("\t\t}\n");
+
+		Set<String> setters = new HashSet<String>();
+		for (Map.Entry<String, String> entry : types.entrySet()) {
+			String setter = identifier(entry.getKey(), false);
+			if (RESERVED.contains(setter)) {
+				setter = setter + "_";
+			}
+			if (!setters.add(setter)) {
+				throw new RuntimeException("Binding name clashes with another binding : " + entry.getKey());
+			}
+			out.append("\n");
+			out.append("\t\t/**\n");
+			out.append("\t\t * \n");
+			out.append("\t\t * @param value\n");
+			out.append("\t\t *            value of the ").append(comment(entry.getKey())).append(" binding\n");
+			out.append("\t\t * @return this\n");
+			out.append("\t\t */\n");
+			out.append("\t\tpublic ").append(className).append(" ").append(setter).append("(")
+					.append(entry.getValue()).append(" value) {\n");
+			out.append("\t\t\tsql.bindings().bind(");
+			literal(out, entry.getKey());
+			out.append(", value);\n");
+			out.append("\t\t\treturn this;\n");
+			out.append("\t\t}\n");
+		}
+
+		out.append("\n");
+		out.append("\t\t/**\n");
+		out.append("\t\t * \n");
+		out.append("\t\t * @return the statement\n");
+		out.append("\t\t */\n");
+		out.append("\t\tpublic SQL sql() {\n");
+		out.append("\t\t\treturn sql;\n");
+		out.append("\t\t}\n");
+		out.append("\n");
+		out.append("\t\t@Override\n");
+		out.append("\t\tpublic String toString() {\n");
+		out.append("\t\t\treturn sql.toString();\n");
+		out.append("\t\t}\n");
+		out.append("\t}\n");
+	}
+
+	/**
+	 * Append the expression constructing the node, the binding nodes are
+	 * numbered in tree order
+	 */
+	private static void node(StringBuilder out, StreeNode node, Map<SQLBindNode, Integer> ordinals, int depth) {
+		if (node.getClass() == StreeClause.class) {
+			CharSequence content = ((StreeClause) node).content();
+			if (content == null) {
+				out.append("new StreeClause()");
+			} else {
+				out.append("new StreeClause(");
+				literal(out, content.toString());
+				out.append(")");
+			}
+		} else if (node.getClass() == StreeGroup.class) {
+			List<StreeNode> children = SQL.childrenOf((StreeGroup) node);
+			// the group is built from its list to keep the statement unexposed
+			if (children.isEmpty()) {
+				out.append("new StreeGroup()");
+				return;
+			}
+			out.append("new StreeGroup(Arrays.<StreeNode> asList(");
+			for (int i = 0; i < children.size(); i++) {
+				out.append("\n");
+				for (int j = 0; j <= depth; j++) {
+					out.append('\t');
+				}
+				node(out, children.get(i), ordinals, depth + 1);
+				out.append(i < children.size() - 1 ? "," : "))");
+			}
+			// the exclusion of a group is computed from its child nodes
+			return;
+		} else if (node.getClass() == StreeAnnotation.class) {
+			out.append("new StreeAnnotation(");
+			literal(out, ((StreeAnnotation) node).expression);
+			out.append(")");
+		} else if (node.getClass() == SQLBindNode.class) {
+			SQLBindNode bind = (SQLBindNode) node;
+			if (bind.value != null || bind.buckets != null || bind.dialect != null || bind.inline
+					|| bind.jdbcType != null || !",".equals(bind.seperator)) {
+				throw new IllegalArgumentException("Binding state can not be generated : " + bind);
+			}
+			ordinals.put(bind, ordinals.size());
+			out.append("bind(");
+			if (bind.name == null) {
+				out.append("null");
+			} else {
+				literal(out, bind.name);
+			}
+			out.append(", ").append(bind.optional).append(", ");
+			value(out, bind.defaultValue);
+			out.append(")");
+			if (bind.excludeFlag()) {
+				out.append(".exclude(true)");
+			}
+			return;
+		} else {
+			throw new IllegalArgumentException("Node can not be generated : " + node.getClass().getName());
+		}
+
+		if (node.isExclude()) {
+			out.append(".exclude(true)");
+		}
+	}
+
+	/**
+	 * Append the default value of a binding as a java expression
+	 */
+	private static void value(StringBuilder out, Object value) {
+		if (value == null) {
+			out.append("null");
+		} else if (value instanceof String) {
+			literal(out, (String) value);
+		} else if (value instanceof Long) {
+			out.append(value).append("L");
+		} else if (value instanceof Double) {
+			double d = (Double) value;
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				out.append("Double.longBitsToDouble(").append(Double.doubleToRawLongBits(d)).append("L)");
+			} else {
+				out.append(value).append("d");
+			}
+		} else if (value instanceof Boolean) {
+			out.append(value);
+		} else {
+			throw new IllegalArgumentException("Default value can not be generated : " + value);
+		}
+	}
+
+	/**
+	 * 
+	 * @return parameter type of the setter of a binding with the given
+	 *         default value
+	 */
+	private static String type(Object defaultValue) {
+		if (defaultValue instanceof Long || defaultValue instanceof Double) {
+			return "Number";
+		} else if (defaultValue instanceof Boolean) {
+			return "Boolean";
+		}
+		return "Object";
+	}
+
+	/**
+	 * Append the string as a java string literal, a long string is appended
+	 * in parts so no literal exceeds the constant size of a class file
+	 */
+	static void literal(StringBuilder out, String value) {
+		if (value.length() > MAX_LITERAL) {
+			out.append("new StringBuilder(").append(value.length()).append(")");
+			for (int i = 0; i < value.length(); i += MAX_LITERAL) {
+				out.append(".append(");
+				literal(out, value.substring(i, Math.min(value.length(), i + MAX_LITERAL)));
+				out.append(")");
+			}
+			out.append(".toString()");
+			return;
+		}
+
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20 || c > 0x7E) {
+					out.append(String.format("\\u%04x", (int) c));
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+
+	/**
+	 * 
+	 * @return the text with the characters ending a comment or starting a
+	 *         markup escaped
+	 */
+	private static String comment(String text) {
+		return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("*/", "*&#47;")
+				.replace("@", "&#64;").replace("\\u", "\\\\u");
+	}
+
+	/**
+	 * Convert a statement, binding or file name to a java identifier, e.g.
+	 * search_customer to searchCustomer or SearchCustomer
+	 * 
+	 * @param name
+	 * @param type
+	 *            if the first letter is capitalized
+	 * @return
+	 */
+	static String identifier(String name, boolean type) {
+		StringBuilder buffer = new StringBuilder();
+		boolean upper = type;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!Character.isJavaIdentifierPart(c) || c == '_' || c == '$') {
+				upper = buffer.length() > 0 || type;
+			} else if (upper) {
+				buffer.append(Character.toUpperCase(c));
+				upper = false;
+			} else {
+				buffer.append(buffer.length() == 0 ? Character.toLowerCase(c) : c);
+			}
+		}
+		if (buffer.length() == 0 || !Character.isJavaIdentifierStart(buffer.charAt(0))) {
+			buffer.insert(0, '_');
+		}
+		String identifier = buffer.toString();
+		return KEYWORDS.contains(identifier) ? identifier + "_" : identifier;
+	}
+
+	/**
+	 * Convert a statement name to a constant name, e.g. search_customer or
+	 * searchCustomer to SEARCH_CUSTOMER
+	 */
+	static String constant(String name) {
+		StringBuilder buffer = new StringBuilder();
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!Character.isJavaIdentifierPart(c) || c == '_' || c == '$') {
+				if (buffer.length() > 0 && buffer.charAt(buffer.length() - 1) != '_') {
+					buffer.append('_');
+				}
+			} else {
+				if (Character.isUpperCase(c) && i > 0 && Character.isLowerCase(name.charAt(i - 1))
+						&& buffer.length() > 0 && buffer.charAt(buffer.length() - 1) != '_') {
+					buffer.append('_');
+				}
+				buffer.append(Character.toUpperCase(c));
+			}
+		}
+		if (buffer.length() > 0 && buffer.charAt(buffer.length() - 1) == '_') {
+			buffer.setLength(buffer.length() - 1);
+		}
+		if (buffer.length() == 0 || !Character.isJavaIdentifierStart(buffer.charAt(0))) {
+			buffer.insert(0, '_');
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * 
+	 * @return if the name is a valid java identifier and not a keyword
+	 */
+	private static boolean isIdentifier(String name) {
+		if (name.isEmpty() || KEYWORDS.contains(name) || !Character.isJavaIdentifierStart(name.charAt(0))) {
+			return false;
+		}
+		for (int i = 1; i < name.length(); i++) {
+			if (!Character.isJavaIdentifierPart(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Generate the classes of the sql scripts
+	 * 
+	 * @param args
+	 *            source directory, output directory and an optional base
+	 *            package
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: SQLGenerator <source directory> <output directory> [<base package>]");
+			System.exit(2);
+		}
+		SQLGenerator generator = new SQLGenerator(args.length > 2 ? args[2] : null);
+		List<Path> generated = generator.generate(Paths.get(args[0]), Paths.get(args[1]));
+		System.out.println("Generated " + generated.size() + " sql classes into " + args[1]);
+	}
+}
@@ -18,17 +18,36 @@ package tr.com.olives4j.sql;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import tr.com.olives4j.sql.util.CharSequenceReader;
+import tr.com.olives4j.sql.util.Functionals.Consumer;
+import tr.com.olives4j.sql.util.IntList;
+import tr.com.olives4j.sql.util.SQLLexer;
 import tr.com.olives4j.stree.StreeAnnotation;
+import tr.com.olives4j.stree.StreeClause;
+import tr.com.olives4j.stree.StreeNode;
 
 /**
  * Parse sql text into SQL types
@@ -37,6 +56,9 @@ import tr.com.olives4j.stree.StreeAnnotation;
  * 
  */
 public class SQLReader {
+	/** Minimum number of characters parsed by a parallel task **/
+	static final int MIN_CHUNK_SIZE = 64 * 1024;
+
 	private enum SYNTAX {
 		NA, NEW, START, INLINE_COMMENT, BLOCK_COMMENT_START, BLOCK_COMMENT, STRING, HINT, ANNOTATION;
 
@@ -52,8 +74,7 @@ public class SQLReader {
 	 * @return List of query strings
 	 */
 	public static SQLCollection read(CharSequence content) {
-		CharSequenceReader reader = new CharSequenceReader(content);
-		return read(reader, null);
+		return parse(chars(content), null);
 	}
 
 	/*
@@ -64,7 +85,7 @@ public class SQLReader {
 	 * @return List of query strings
 	 */
 	public static SQLCollection read(CharSequence content, Options options) {
-		return read(new CharSequenceReader(content), options);
+		return parse(chars(content), options);
 	}
 
 	/*
@@ -81,317 +102,93 @@ public class SQLReader {
 	 * the given options
 	 */
 	public static SQLCollection read(Reader reader, Options options) {
-		if (options == null) {
-			options = new Options();
-		}
-		StringBuilder buffer = new StringBuilder();
-		StringBuilder lastWord = new StringBuilder();
-		String prevWord = "";
-
-		SYNTAX currentTag = SYNTAX.NEW;
+		Parser parser = parser(reader, options);
 		List<SQL> sqls = new ArrayList<SQL>();
-
-		CachedReader creader = new CachedReader(reader, Math.max(options.bufferSize, 32), 4);
-
-		boolean isWhiteSpace = false;
-		boolean isWordSeparator = false;
-		boolean isPlsqlBlock = false;
-		boolean isNewLine = false;
-
-		int lastCommentStart = -1;
-		int plsqlBeginDept = 0;
-		boolean wasPlsqlBlock = false;
-		int i = -1;
-		char c = '\0', CL1 = '\0', CR1 = '\0', CR2 = '\0';
-
-		SQL.Options sqlOptions = new SQL.Options();
-		if (options.disableFormat) {
-			sqlOptions.keepFormat = true;
+		for (SQL sql = parser.next(); sql != null; sql = parser.next()) {
+			sqls.add(sql);
 		}
+		return new SQLCollection(sqls);
+	}
 
-		SQL sql = new SQL(sqlOptions);
-
-		boolean isSqlStarted = false;
-
-		String plsqlEndName = "";
-		boolean plsqlStartWord = false;
-
-		try {
-			while (true) {
-				if (creader.hasNext()) {
-					c = creader.read();
-				} else {
-					break;
-				}
-
-				CL1 = creader.prev(1);
-				CR1 = creader.next(1);
-				CR2 = creader.next(2);
-
-				// // to trace each step
-				// System.out.println(new
-				// String(creader.chars).replaceAll("[\0\\n\\r]", "_") + " ::: "
-				// + c + " :: "
-				// + creader.pos);
-
-				isWhiteSpace = Character.isWhitespace(c) || c == '\0';
-				isWordSeparator = isWhiteSpace || match(c, options.wordSeperators);
-				isNewLine = isWhiteSpace && (c == '\r' || c == '\n');
-
-				// if in a hint block
-				if (currentTag == SYNTAX.HINT) {
-					// emits all comment block
-					do {
-						buffer.append(c);
-						if ((creader.prev(1) == '*' && c == '/') && (buffer.length() - lastCommentStart) > 3) {
-							break;
-						}
-						c = creader.read();
-					} while (creader.hasNext());
-
-					// if annotation not ended properly
-					if (!(creader.prev(1) == '*' && c == '/')) {
-						continue;
-					}
-
-					if (!options.keepComments) {
-						buffer.setLength(lastCommentStart);
-					}
-					currentTag = SYNTAX.NA;
-					continue;
-				}
-				// if in a trigger block
-				else if (currentTag == SYNTAX.ANNOTATION) {
-					// emits all comment block
-					do {
-						buffer.append(c);
-						if ((creader.prev(1) == '*' && c == '/') && (buffer.length() - lastCommentStart) > 3) {
-							break;
-						}
-						c = creader.read();
-					} while (creader.hasNext());
-
-					// if annotation not ended properly
-					if (!(creader.prev(1) == '*' && c == '/')) {
-						continue;
-					}
-
-					// if end of the trigger block
-					processAnnotation(sql, isSqlStarted, buffer, lastCommentStart + 2, buffer.length() - 2, options);
-
-					currentTag = SYNTAX.NA;
-					continue;
-				}
-				// if start of a block comment (/* comment */),hint (/*+..*/),
-				// or trigger(/*@...*/)
-				else if (c == '/' && CR1 == '*') {
-					// holds the start position of the comment block
-					lastCommentStart = buffer.length();
-
-					// if start of a hint block
-					if (CR2 == '+') {
-						currentTag = SYNTAX.HINT;
-						buffer.append('/');
-						continue;
-					}
-					// if start of a trigger block
-					else if (CR2 == '@') {
-						currentTag = SYNTAX.ANNOTATION;
-						buffer.append('/');
-						continue;
-					}
-
-					currentTag = SYNTAX.BLOCK_COMMENT;
-
-					// emits all comment block
-					do {
-						if (options.keepComments) {
-							buffer.append(c);
-						}
-						if ((creader.prev(1) == '*' && c == '/')) {
-							break;
-						}
-						c = creader.read();
-					} while (creader.hasNext());
-
-					if (!(creader.prev(1) == '*' && c == '/')) {
-						continue;
-					}
-
-					currentTag = SYNTAX.NA;
-					continue;
-				}
-				// if start of inline comment
-				else if (c == '-' && CR1 == '-') {
-					lastCommentStart = buffer.length();
-
-					boolean annotation = CR2 == '@';
-					currentTag = SYNTAX.INLINE_COMMENT;
-					do {
-						if (options.keepComments || annotation) {
-							buffer.append(c);
-						}
-						c = creader.read();
-					} while (creader.hasNext() && (c != '\n'));
-
-					if (annotation) {
-						processAnnotation(sql, isSqlStarted, buffer, lastCommentStart + 2, buffer.length(), options);
-					}
-
-					currentTag = SYNTAX.NA;
-					continue;
-				}
-				// if start of a string "....."
-				else if ((c == '"' || c == '\'') && CL1 != '\\') {
-					currentTag = SYNTAX.STRING;
-					do {
-						buffer.append(c);
-						c = creader.read();
-					} while (creader.hasNext() && !(c == '"' || c == '\''));
-					buffer.append(c);
-					currentTag = SYNTAX.NA;
-					continue;
-				}
-				// if plsql separator
-				else if (c == '/' && currentTag == SYNTAX.NEW) {
-					// emit the character
-					continue;
-				}
-				// this is the first character meaningful so sql block started
-				else if (!isWhiteSpace && currentTag == SYNTAX.NEW) {
-					currentTag = SYNTAX.START;
-				}
-
-				//
-				if ((isWordSeparator) && lastWord.length() > 0) {
-					// Handle inline/normal parameters
-					final char lastWordStart = lastWord.charAt(0);
-					String lastWordStr = lastWord.toString();
-
-					if (lastWordStart == ':' && isJavaIdentifier(lastWordStr.substring(1))) {
-						String paramName = lastWordStr.substring(1);
-						buffer.setLength(buffer.length() - lastWord.length());
-						sql.append(buffer);
-						buffer.setLength(0);
-						sql.append(new SQLBindNode().name(paramName));
-					} else if (lastWordStart == '$') {
-						if (options.params != null && Character.isJavaIdentifierStart(lastWordStart)) {
-							replaceInlineParam(options, buffer, lastWord);
-						}
-					}
-
-					// Handle plsql block
-					String lastWordUpr = lastWordStr.toUpperCase();
-					prevWord = prevWord.toUpperCase();
-					if (isPlsqlBlock) {
-						if (lastWordUpr.equals("BEGIN") || lastWordUpr.equals("BEGİN")) {
-							if (plsqlEndName.isEmpty()) {
-								plsqlBeginDept++;
-							}
-						} else if (c == ';' && "END".equals(lastWordUpr) && plsqlEndName.isEmpty()) {
-							plsqlBeginDept--;
-							isPlsqlBlock = plsqlBeginDept > 0;
-						} else if (c == ';' && "END".equals(prevWord) && lastWordUpr.equals(plsqlEndName)) {
-							plsqlBeginDept--;
-							isPlsqlBlock = plsqlBeginDept > 0;
-						}
-					} else if (plsqlStartWord == false) {
-						if (lastWordUpr.equals("CREATE")) {
-							plsqlStartWord = true;
-						} else if (lastWordUpr.equals("BEGIN") || lastWordUpr.equals("BEGİN")) {
-							isPlsqlBlock = true;
-							plsqlBeginDept++;
-						} else if (lastWordUpr.equals("DECLARE")) {
-							isPlsqlBlock = true;
-						}
-						if (isPlsqlBlock) {
-							wasPlsqlBlock = true;
-						}
-					} else if (plsqlStartWord == true) {
-						if (options.plsqlStart != null) {
-							Matcher matcher = options.plsqlStart.matcher(buffer);
-							if (matcher.find()) {
-								plsqlEndName = matcher.group(matcher.groupCount());
-								if (plsqlEndName != null) {
-									isPlsqlBlock = true;
-									plsqlBeginDept++;
-								}
-							}
-						}
-
-						if (isPlsqlBlock) {
-							wasPlsqlBlock = true;
-						}
-					}
+	/**
+	 * Parse the given reader content and pass each statement to the consumer as
+	 * soon as its end is reached, without holding the previous statements
+	 * 
+	 * @param reader
+	 *            sql content
+	 * @param options
+	 *            reader options, may be null
+	 * @param consumer
+	 *            called for each parsed statement in order
+	 * @return number of the statements parsed
+	 */
+	public static int read(Reader reader, Options options, Consumer<SQL> consumer) {
+		Parser parser = parser(reader, options);
+		for (SQL sql = parser.next(); sql != null; sql = parser.next()) {
+			consumer.accept(sql);
+		}
+		return parser.count;
+	}
 
-					prevWord = lastWord.toString();
-					lastWord.setLength(0);
+	/**
+	 * Lazily parse the given reader content. Each call to {@link Iterator#next()}
+	 * reads the input only up to the end of the next statement, so memory use is
+	 * bounded by the largest statement rather than the whole content.
+	 * 
+	 * @param reader
+	 *            sql content
+	 * @param options
+	 *            reader options, may be null
+	 * @return iterator over the parsed statements
+	 */
+	public static Iterator<SQL> stream(Reader reader, Options options) {
+		final Parser parser = parser(reader, options);
+		return new Iterator<SQL>() {
+			SQL next;
+
+			@Override
+			public boolean hasNext() {
+				if (next == null) {
+					next = parser.next();
 				}
+				return next != null;
+			}
 
-				if (!isPlsqlBlock && (c == ';' || c == '\0')) {
-					currentTag = SYNTAX.NEW;
-
-					if (wasPlsqlBlock) {
-						buffer.append(';');
-						wasPlsqlBlock = false;
-					}
-					if (buffer.length() > 0) {
-						sql.append(buffer);
-					}
-
-					String sqlcontent = sql.toString().trim();
-					if (!sqlcontent.isEmpty()) {
-						sqls.add(sql);
-					}
-
-					buffer.setLength(0);
-					plsqlBeginDept = 0;
-					prevWord = "";
-					plsqlEndName = "";
-					plsqlStartWord = false;
-					sql = new SQL();
-				} else {
-					if (!isWordSeparator && c != '\0') {
-						lastWord.append(c);
-					}
-					buffer.append(c);
-
-					if (isNewLine && buffer.length() > 1) {
-						sql.append(buffer);
-						buffer.setLength(0);
-					}
+			@Override
+			public SQL next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
 				}
+				SQL result = next;
+				next = null;
+				return result;
 			}
-		} catch (ArrayIndexOutOfBoundsException e) {
-			throw new RuntimeException("Could not parse query! Invalid index:" + i, e);
-		} catch (Exception e) {
-			throw new RuntimeException("Could not parse query!", e);
-		}
-
-		if (sqls.size() == 0 && sql.toString().trim().length() > 0) {
-			sqls.add(sql);
-		}
 
-		return new SQLCollection(sqls);
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("remove");
+			}
+		};
 	}
 
 	/**
 	 * 
-	 * @param sql
+	 * @param parser
 	 * @param isBeforeSql
 	 * @param buffer
 	 * @param start
 	 * @param end
 	 */
-	private static void processAnnotation(SQL sql, boolean isBeforeSql, StringBuilder buffer, int start, int end,
-			Options options) {
+	private static void processAnnotation(Parser parser, boolean isBeforeSql, StringBuilder buffer, int start,
+			int end, Options options) {
+		SQL sql = parser.sql;
 		String expression = buffer.substring(start, end);
 
 		String[] exprargs = expression.split("[ @\r\t\n]", 3);
 		String triggerName = exprargs[1];
 		triggerName = triggerName.toLowerCase();
-		if (isJavaIdentifier(triggerName)) {
-			sql.append(new StreeAnnotation(expression));
+		if (SQLLexer.isIdentifier(triggerName, 0, triggerName.length())) {
+			sql.add(new StreeAnnotation(expression));
 
 			if ("named".equals(triggerName)) {
 				String aname = readJavaIdentifier(expression.toCharArray(), 6);
@@ -511,13 +308,31 @@ public class SQLReader {
 				buffer.setLength(first);
 			}
 
-			sql.append(buffer);
+			parser.flush();
 			buffer.setLength(0);
-			sql.append(bind);
+			sql.add(bind);
 			sql.append("\r\n");
 		}
 	}
 
+	/**
+	 * 
+	 * @return if the statement is named by a NAMED annotation
+	 */
+	static boolean isNamed(SQL sql) {
+		List<StreeNode> nodes = SQL.childrenOf(sql);
+		for (int i = 0; i < nodes.size(); i++) {
+			if (!(nodes.get(i) instanceof StreeAnnotation)) {
+				continue;
+			}
+			String[] args = ((StreeAnnotation) nodes.get(i)).expression.split("[ @\r\t\n]", 3);
+			if (args.length > 1 && "named".equalsIgnoreCase(args[1])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * 
 	 * @param c
@@ -564,25 +379,25 @@ public class SQLReader {
 	 */
 	private final static String readJavaIdentifier(char[] chars, int start) {
 		int end = start;
-		int ch = chars[start];
+		char ch = chars[start];
 
 		boolean found = false;
 
 		end = start;
 		for (; end < chars.length; end++) {
 			ch = chars[end];
-			if (Character.isWhitespace(ch)) {
+			if (SQLLexer.isWhitespace(ch)) {
 				continue;
 			}
 			if (!found) {
-				if (!Character.isJavaIdentifierStart(ch)) {
+				if (!SQLLexer.isIdentifierStart(ch)) {
 					return null;
 				}
 				start = end;
 				found = true;
 			}
 
-			if (!Character.isJavaIdentifierPart(ch)) {
+			if (!SQLLexer.isIdentifierPart(ch)) {
 				return null;
 			}
 		}
@@ -591,28 +406,899 @@ public class SQLReader {
 	}
 
 	/**
+	 * Parse the given file by mapping it into memory and decoding it in a single
+	 * pass. The parser scans the decoded buffer directly instead of copying the
+	 * content through a {@link Reader}.
 	 * 
-	 * @param s
-	 * @return
+	 * @param path
+	 *            sql file
+	 * @param charset
+	 *            charset of the file
+	 * @param options
+	 *            reader options, may be null
+	 * @return SQL collection type as a result of parsing given file content
 	 */
-	private final static boolean isJavaIdentifier(String s) {
-		// an empty or null string cannot be a valid identifier
-		if (s == null || s.length() == 0) {
-			return false;
+	public static SQLCollection read(Path path, Charset charset, Options options) {
+		return parse(decode(path, charset), options);
+	}
+
+	/**
+	 * Parse the given buffer, the clauses of the statements are slices of the
+	 * buffer array if the buffer has one
+	 * 
+	 * @param chars
+	 *            content, it should not be modified later
+	 * @param options
+	 *            reader options, may be null
+	 * @return SQL collection type as a result of parsing given content
+	 */
+	private static SQLCollection parse(CharBuffer chars, Options options) {
+		if (options == null) {
+			options = new Options();
 		}
+		Parser parser = new Parser(new BufferSource(chars), options);
+		List<SQL> sqls = new ArrayList<SQL>();
+		for (SQL sql = parser.next(); sql != null; sql = parser.next()) {
+			sqls.add(sql);
+		}
+		return new SQLCollection(sqls);
+	}
 
-		char[] c = s.toCharArray();
-		if (!Character.isJavaIdentifierStart(c[0])) {
-			return false;
+	/**
+	 * 
+	 * @return a copy of the content in an array backed buffer, shared by the
+	 *         clauses of the parsed statements
+	 */
+	private static CharBuffer chars(CharSequence content) {
+		char[] chars = new char[content.length()];
+		if (content instanceof String) {
+			((String) content).getChars(0, chars.length, chars, 0);
+		} else {
+			for (int i = 0; i < chars.length; i++) {
+				chars[i] = content.charAt(i);
+			}
+		}
+		return CharBuffer.wrap(chars);
+	}
+
+	/**
+	 * Parse the given file or load it from the cache if it is parsed before with
+	 * the same content and options. The parsed statements are written to the
+	 * cache, the statements of a file read with parameters are not cached.
+	 * 
+	 * @param path
+	 *            sql file
+	 * @param charset
+	 *            charset of the file
+	 * @param options
+	 *            reader options, may be null
+	 * @param cache
+	 *            cache of the parsed files
+	 * @return SQL collection type as a result of parsing given file content
+	 * @see SQLCache
+	 */
+	public static SQLCollection read(Path path, Charset charset, Options options, SQLCache cache) {
+		if (options == null) {
+			options = new Options();
+		}
+		if (options.params != null) {
+			return read(path, charset, options);
+		}
+
+		try {
+			byte[] content = Files.readAllBytes(path);
+			String key = SQLCache.key(content, charset, options);
+			SQLCollection sqls = cache.get(key);
+			if (sqls != null) {
+				return sqls;
+			}
+
+			sqls = parse(decode(ByteBuffer.wrap(content), charset), options);
+			cache.put(key, sqls);
+			return sqls;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read " + path, e);
+		}
+	}
+
+	/**
+	 * Parse the given content in parallel. A fast scan splits the content into
+	 * chunks at the statement terminators out of strings, comments and PL/SQL
+	 * blocks and the chunks are parsed by the tasks of the pool. The statements
+	 * are collected in the order of the content.
+	 * 
+	 * <p>
+	 * The scan is only a guess, a chunk is accepted if its parser completed a
+	 * statement at the last terminator of the chunk. Otherwise the content is
+	 * parsed sequentially from the start of the chunk until the parser completes
+	 * a statement at a later boundary, and the chunks after that boundary are
+	 * used. So the result is the same as
+	 * {@link #read(CharSequence, Options)}. The content smaller than
+	 * {@link #MIN_CHUNK_SIZE} is parsed sequentially.
+	 * 
+	 * @param content
+	 *            sql content
+	 * @param options
+	 *            reader options, may be null
+	 * @param pool
+	 *            pool running the parser tasks
+	 * @return SQL collection type as a result of parsing given content
+	 */
+	public static SQLCollection read(CharSequence content, Options options, ForkJoinPool pool) {
+		return parse(chars(content), options, pool);
+	}
+
+	/**
+	 * Parse the given buffer in parallel, see
+	 * {@link #read(CharSequence, Options, ForkJoinPool)}
+	 */
+	private static SQLCollection parse(CharBuffer content, Options options, ForkJoinPool pool) {
+		if (options == null) {
+			options = new Options();
+		}
+		int chunkCount = Math.min(pool.getParallelism() * 4, content.length() / MIN_CHUNK_SIZE);
+		if (chunkCount < 2) {
+			return parse(content, options);
 		}
 
-		for (int i = 1; i < c.length; i++) {
-			if (!Character.isJavaIdentifierPart(c[i])) {
-				return false;
+		int[] bounds = boundaries(content, chunkCount);
+		List<ForkJoinTask<Chunk>> tasks = new ArrayList<ForkJoinTask<Chunk>>(bounds.length - 1);
+		for (int i = 0; i < bounds.length - 1; i++) {
+			tasks.add(pool.submit(new Chunk(content, bounds[i], bounds[i + 1], options, i == 0)));
+		}
+
+		List<Chunk> chunks = new ArrayList<Chunk>(tasks.size());
+		int size = 0;
+		for (int i = 0; i < tasks.size(); i++) {
+			Chunk chunk = tasks.get(i).join();
+			if (!chunk.clean) {
+				// the boundary is in a statement, parse sequentially up to a later boundary
+				chunk = new Chunk(content, chunk.start, content.length(), options, chunk.first);
+				int next = chunk.until(bounds, i + 1);
+				for (; i + 1 < next; i++) {
+					tasks.get(i + 1).cancel(false);
+				}
 			}
+			chunks.add(chunk);
+			size += chunk.sqls.size();
 		}
 
-		return true;
+		// content without a terminated statement is a single statement
+		if (size == 0) {
+			return parse(content, options);
+		}
+
+		List<SQL> sqls = new ArrayList<SQL>(size);
+		for (Chunk chunk : chunks) {
+			sqls.addAll(chunk.sqls);
+			options.parameterCount += chunk.options.parameterCount;
+			options.replacedParameterCount += chunk.options.replacedParameterCount;
+			options.missedParameters.addAll(chunk.options.missedParameters);
+		}
+		return new SQLCollection(sqls);
+	}
+
+	/**
+	 * Parse the given file in parallel, see
+	 * {@link #read(CharSequence, Options, ForkJoinPool)}
+	 * 
+	 * @param path
+	 *            sql file
+	 * @param charset
+	 *            charset of the file
+	 * @param options
+	 *            reader options, may be null
+	 * @param pool
+	 *            pool running the parser tasks
+	 * @return SQL collection type as a result of parsing given file content
+	 */
+	public static SQLCollection read(Path path, Charset charset, Options options, ForkJoinPool pool) {
+		return parse(decode(path, charset), options, pool);
+	}
+
+	/**
+	 * Scan the content for the statement terminators out of strings, comments and
+	 * PL/SQL blocks and pick the first one after each chunk of the given size
+	 * 
+	 * @param content
+	 *            sql content
+	 * @param chunkCount
+	 *            requested number of chunks
+	 * @return start offsets of the chunks followed by the content length
+	 */
+	static int[] boundaries(CharSequence content, int chunkCount) {
+		int length = content.length();
+		int chunkSize = length / chunkCount;
+		IntList bounds = new IntList(chunkCount + 1);
+		bounds.add(0);
+
+		int target = chunkSize;
+		// nesting of the BEGIN and CASE blocks
+		int depth = 0;
+		// in a PL/SQL unit, which ends by the first terminator after its last END
+		boolean plsql = false;
+		boolean closing = false;
+		boolean afterEnd = false;
+		boolean afterCreate = false;
+		SQLLexer lexer = new SQLLexer(content);
+		for (int kind = lexer.next(); kind != SQLLexer.EOF && target < length; kind = lexer.next()) {
+			if (kind == SQLLexer.WORD) {
+				int keyword = lexer.keyword();
+				if (keyword == SQLLexer.END) {
+					depth = Math.max(depth - 1, 0);
+					closing = plsql && depth == 0;
+					afterEnd = true;
+					afterCreate = false;
+					continue;
+				}
+
+				if (afterEnd) {
+					// END IF and END LOOP do not close a block
+					if (keyword == SQLLexer.IF || keyword == SQLLexer.LOOP) {
+						depth++;
+						closing = false;
+					}
+				} else if (keyword == SQLLexer.BEGIN || keyword == SQLLexer.CASE) {
+					depth++;
+				} else if (keyword == SQLLexer.DECLARE) {
+					plsql = true;
+				} else if (afterCreate && (keyword == SQLLexer.FUNCTION || keyword == SQLLexer.PROCEDURE)) {
+					plsql = true;
+				} else if (afterCreate && keyword == SQLLexer.PACKAGE) {
+					// the package itself is a block closed by its END
+					plsql = true;
+					depth++;
+				}
+				afterCreate = keyword == SQLLexer.CREATE
+						|| (afterCreate && (keyword == SQLLexer.OR || keyword == SQLLexer.REPLACE));
+				afterEnd = false;
+			} else if (kind == SQLLexer.SYMBOL && lexer.first() == ';') {
+				if (depth == 0 && (!plsql || closing)) {
+					plsql = false;
+					closing = false;
+					if (lexer.end() >= target) {
+						bounds.add(lexer.end());
+						target = lexer.end() + chunkSize;
+					}
+				}
+				afterEnd = false;
+				afterCreate = false;
+			}
+		}
+		bounds.add(length);
+		return bounds.toArray();
+	}
+
+	/**
+	 * Map the given file into memory and decode it in a single pass
+	 * 
+	 * @param path
+	 * @param charset
+	 * @return decoded content
+	 */
+	private static CharBuffer decode(Path path, Charset charset) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return decode(mapped, charset);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read " + path, e);
+		}
+	}
+
+	/**
+	 * 
+	 * @param bytes
+	 * @param charset
+	 * @return decoded content, malformed input is replaced
+	 * @throws CharacterCodingException
+	 */
+	private static CharBuffer decode(ByteBuffer bytes, Charset charset) throws CharacterCodingException {
+		return charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE).decode(bytes);
+	}
+
+	/**
+	 * 
+	 * @param reader
+	 * @param options
+	 * @return a parser reading the given reader through a {@link CachedReader}
+	 */
+	private static Parser parser(Reader reader, Options options) {
+		if (options == null) {
+			options = new Options();
+		}
+		return new Parser(new CachedReader(reader, Math.max(options.bufferSize, 32), 4), options);
+	}
+
+	/**
+	 * Pull parser holding the state machine of a single input between the
+	 * statements
+	 * 
+	 * @author omer.dogan
+	 * 
+	 */
+	private static final class Parser {
+		final Options options;
+		final CharSource creader;
+		final StringBuilder buffer = new StringBuilder();
+		final StringBuilder lastWord = new StringBuilder();
+		/** Keyword of the previous word **/
+		int prevKeyword = SQLLexer.NONE;
+		/** Word separators of the options by ASCII code **/
+		final boolean[] separators = new boolean[128];
+		SYNTAX currentTag = SYNTAX.NEW;
+
+		boolean isPlsqlBlock = false;
+		int lastCommentStart = -1;
+		int plsqlBeginDept = 0;
+		boolean wasPlsqlBlock = false;
+
+		SQL sql;
+		boolean isSqlStarted = false;
+
+		String plsqlEndName = "";
+		boolean plsqlStartWord = false;
+
+		/** Number of the statements emitted **/
+		int count;
+		/** Set when the input is consumed **/
+		boolean finished;
+		/** Position of the last statement terminator **/
+		int lastEnd = -1;
+		/** Backing array of the source, null if the source is not an array **/
+		final char[] array;
+		/** Index of the first source character in the array **/
+		final int offset;
+		/** Number of the source characters **/
+		final int length;
+		/** Source position of the buffer if the buffer is a range of the source, -1 otherwise **/
+		int bufferStart = -1;
+
+		/**
+		 * 
+		 * @param source
+		 * @param options
+		 */
+		Parser(CharSource source, Options options) {
+			this(source, options, true);
+		}
+
+		/**
+		 * 
+		 * @param source
+		 * @param options
+		 * @param first
+		 *            if the source starts at the beginning of the content
+		 */
+		Parser(CharSource source, Options options, boolean first) {
+			super();
+			this.options = options;
+			this.creader = source;
+			this.array = source.array();
+			this.offset = source.offset();
+			this.length = source.length();
+			for (char separator : options.wordSeperators) {
+				if (separator < separators.length) {
+					separators[separator] = true;
+				}
+			}
+
+			if (first) {
+				SQL.Options sqlOptions = new SQL.Options();
+				if (options.disableFormat) {
+					sqlOptions.keepFormat = true;
+				}
+				this.sql = new SQL(sqlOptions);
+			} else {
+				this.sql = new SQL();
+			}
+		}
+
+		/**
+		 * Read the input up to the end of the next statement
+		 * 
+		 * @return the next statement or null if there is no more
+		 */
+		SQL next() {
+			if (finished) {
+				return null;
+			}
+
+			boolean isWhiteSpace = false;
+			boolean isWordSeparator = false;
+			boolean isNewLine = false;
+			int i = -1;
+			char c = '\0', CL1 = '\0', CR1 = '\0', CR2 = '\0';
+
+			try {
+				while (true) {
+					if (creader.hasNext()) {
+						c = creader.read();
+					} else {
+						break;
+					}
+
+					CL1 = creader.prev(1);
+					CR1 = creader.next(1);
+					CR2 = creader.next(2);
+
+					// // to trace each step
+					// System.out.println(new
+					// String(creader.chars).replaceAll("[\0\\n\\r]", "_") + " ::: "
+					// + c + " :: "
+					// + creader.pos);
+
+					isWhiteSpace = SQLLexer.isWhitespace(c) || c == '\0';
+					isWordSeparator = isWhiteSpace
+							|| (c < separators.length ? separators[c] : match(c, options.wordSeperators));
+					isNewLine = isWhiteSpace && (c == '\r' || c == '\n');
+
+					// if in a hint block
+					if (currentTag == SYNTAX.HINT) {
+						// emits all comment block
+						do {
+							append(c);
+							if ((creader.prev(1) == '*' && c == '/') && (buffer.length() - lastCommentStart) > 3) {
+								break;
+							}
+							c = creader.read();
+						} while (creader.hasNext());
+
+						// if annotation not ended properly
+						if (!(creader.prev(1) == '*' && c == '/')) {
+							continue;
+						}
+
+						if (!options.keepComments) {
+							buffer.setLength(lastCommentStart);
+						}
+						currentTag = SYNTAX.NA;
+						continue;
+					}
+					// if in a trigger block
+					else if (currentTag == SYNTAX.ANNOTATION) {
+						// emits all comment block
+						do {
+							append(c);
+							if ((creader.prev(1) == '*' && c == '/') && (buffer.length() - lastCommentStart) > 3) {
+								break;
+							}
+							c = creader.read();
+						} while (creader.hasNext());
+
+						// if annotation not ended properly
+						if (!(creader.prev(1) == '*' && c == '/')) {
+							continue;
+						}
+
+						// if end of the trigger block
+						processAnnotation(this, isSqlStarted, buffer, lastCommentStart + 2, buffer.length() - 2, options);
+
+						currentTag = SYNTAX.NA;
+						continue;
+					}
+					// if start of a block comment (/* comment */),hint (/*+..*/),
+					// or trigger(/*@...*/)
+					else if (c == '/' && CR1 == '*') {
+						// holds the start position of the comment block
+						lastCommentStart = buffer.length();
+
+						// if start of a hint block
+						if (CR2 == '+') {
+							currentTag = SYNTAX.HINT;
+							append('/');
+							continue;
+						}
+						// if start of a trigger block
+						else if (CR2 == '@') {
+							currentTag = SYNTAX.ANNOTATION;
+							append('/');
+							continue;
+						}
+
+						currentTag = SYNTAX.BLOCK_COMMENT;
+
+						// emits all comment block
+						do {
+							if (options.keepComments) {
+								append(c);
+							}
+							if ((creader.prev(1) == '*' && c == '/')) {
+								break;
+							}
+							c = creader.read();
+						} while (creader.hasNext());
+
+						if (!(creader.prev(1) == '*' && c == '/')) {
+							continue;
+						}
+
+						currentTag = SYNTAX.NA;
+						continue;
+					}
+					// if start of inline comment
+					else if (c == '-' && CR1 == '-') {
+						lastCommentStart = buffer.length();
+
+						boolean annotation = CR2 == '@';
+						currentTag = SYNTAX.INLINE_COMMENT;
+						do {
+							if (options.keepComments || annotation) {
+								append(c);
+							}
+							c = creader.read();
+						} while (creader.hasNext() && (c != '\n'));
+
+						if (annotation) {
+							processAnnotation(this, isSqlStarted, buffer, lastCommentStart + 2, buffer.length(), options);
+						}
+
+						currentTag = SYNTAX.NA;
+						continue;
+					}
+					// if start of a string "....."
+					else if ((c == '"' || c == '\'') && CL1 != '\\') {
+						currentTag = SYNTAX.STRING;
+						do {
+							append(c);
+							c = creader.read();
+						} while (creader.hasNext() && !(c == '"' || c == '\''));
+						append(c);
+						currentTag = SYNTAX.NA;
+						continue;
+					}
+					// if plsql separator
+					else if (c == '/' && currentTag == SYNTAX.NEW) {
+						// emit the character
+						continue;
+					}
+					// this is the first character meaningful so sql block started
+					else if (!isWhiteSpace && currentTag == SYNTAX.NEW) {
+						currentTag = SYNTAX.START;
+					}
+
+					//
+					if ((isWordSeparator) && lastWord.length() > 0) {
+						// Handle inline/normal parameters
+						final char lastWordStart = lastWord.charAt(0);
+
+						if (lastWordStart == ':' && SQLLexer.isIdentifier(lastWord, 1, lastWord.length())) {
+							String paramName = lastWord.substring(1);
+							buffer.setLength(buffer.length() - lastWord.length());
+							flush();
+							buffer.setLength(0);
+							sql.add(new SQLBindNode().name(paramName));
+						} else if (lastWordStart == '$') {
+							if (options.params != null && SQLLexer.isIdentifierStart(lastWordStart)) {
+								if (replaceInlineParam(options, buffer, lastWord)) {
+									bufferStart = -1;
+								}
+							}
+						}
+
+						// Handle plsql block
+						int keyword = SQLLexer.keyword(lastWord, 0, lastWord.length());
+						if (isPlsqlBlock) {
+							if (keyword == SQLLexer.BEGIN) {
+								if (plsqlEndName.isEmpty()) {
+									plsqlBeginDept++;
+								}
+							} else if (c == ';' && keyword == SQLLexer.END && plsqlEndName.isEmpty()) {
+								plsqlBeginDept--;
+								isPlsqlBlock = plsqlBeginDept > 0;
+							} else if (c == ';' && prevKeyword == SQLLexer.END
+									&& SQLLexer.matches(lastWord, 0, lastWord.length(), plsqlEndName)) {
+								plsqlBeginDept--;
+								isPlsqlBlock = plsqlBeginDept > 0;
+							}
+						} else if (plsqlStartWord == false) {
+							if (keyword == SQLLexer.CREATE) {
+								plsqlStartWord = true;
+							} else if (keyword == SQLLexer.BEGIN) {
+								isPlsqlBlock = true;
+								plsqlBeginDept++;
+							} else if (keyword == SQLLexer.DECLARE) {
+								isPlsqlBlock = true;
+							}
+							if (isPlsqlBlock) {
+								wasPlsqlBlock = true;
+							}
+						} else if (plsqlStartWord == true) {
+							if (options.plsqlStart != null) {
+								Matcher matcher = options.plsqlStart.matcher(buffer);
+								if (matcher.find()) {
+									plsqlEndName = matcher.group(matcher.groupCount());
+									if (plsqlEndName != null) {
+										isPlsqlBlock = true;
+										plsqlBeginDept++;
+									}
+								}
+							}
+
+							if (isPlsqlBlock) {
+								wasPlsqlBlock = true;
+							}
+						}
+
+						prevKeyword = keyword;
+						lastWord.setLength(0);
+					}
+
+					if (!isPlsqlBlock && (c == ';' || c == '\0')) {
+						currentTag = SYNTAX.NEW;
+
+						if (wasPlsqlBlock) {
+							append(';');
+							wasPlsqlBlock = false;
+						}
+						if (buffer.length() > 0) {
+							flush();
+						}
+
+						String sqlcontent = sql.toString().trim();
+						SQL completed = sqlcontent.isEmpty() ? null : sql;
+
+						buffer.setLength(0);
+						plsqlBeginDept = 0;
+						prevKeyword = SQLLexer.NONE;
+						plsqlEndName = "";
+						plsqlStartWord = false;
+						sql = new SQL();
+						if (c == ';') {
+							lastEnd = creader.position();
+						}
+
+						if (completed != null) {
+							count++;
+							return completed;
+						}
+					} else {
+						if (!isWordSeparator && c != '\0') {
+							lastWord.append(c);
+						}
+						append(c);
+
+						if (isNewLine && buffer.length() > 1) {
+							flush();
+							buffer.setLength(0);
+						}
+					}
+				}
+			} catch (ArrayIndexOutOfBoundsException e) {
+				throw new RuntimeException("Could not parse query! Invalid index:" + i, e);
+			} catch (Exception e) {
+				throw new RuntimeException("Could not parse query!", e);
+			}
+
+			finished = true;
+			if (count == 0 && sql.toString().trim().length() > 0) {
+				count++;
+				return sql;
+			}
+			return null;
+		}
+
+		/**
+		 * Append the character at the current position to the buffer
+		 */
+		void append(char c) throws IOException {
+			int position = creader.position();
+			if (buffer.length() == 0) {
+				bufferStart = position;
+			}
+			// the buffer is a range of the source while it is extended by the
+			// following source characters
+			if (bufferStart >= 0 && (array == null || position != bufferStart + buffer.length()
+					|| position >= length || array[offset + position] != c)) {
+				bufferStart = -1;
+			}
+			buffer.append(c);
+		}
+
+		/**
+		 * Append the buffer to the sql, as a slice of the source if the buffer
+		 * is a range of it
+		 */
+		void flush() {
+			if (bufferStart >= 0) {
+				int start = offset + bufferStart;
+				sql.append(new StreeClause.Slice(array, start, start + buffer.length()));
+			} else {
+				sql.append(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Parser task of a part of the content starting at a statement boundary
+	 */
+	private static final class Chunk implements Callable<Chunk> {
+		final CharBuffer content;
+		final int start;
+		int end;
+		final Options options;
+		final boolean first;
+		final List<SQL> sqls = new ArrayList<SQL>();
+		/** Set if the parser completed a statement at the last character **/
+		boolean clean;
+
+		Chunk(CharBuffer content, int start, int end, Options options, boolean first) {
+			super();
+			this.content = content;
+			this.start = start;
+			this.end = end;
+			this.options = options.copy();
+			this.first = first;
+		}
+
+		@Override
+		public Chunk call() {
+			CharBuffer chars = window(start, end);
+			Parser parser = new Parser(new BufferSource(chars), options, first);
+			// the statement without a terminator is accepted only if it is the whole content
+			parser.count = first && end == content.length() ? 0 : 1;
+			for (SQL sql = parser.next(); sql != null; sql = parser.next()) {
+				sqls.add(sql);
+			}
+			clean = end == content.length() || parser.lastEnd == end - start - 1;
+			return this;
+		}
+
+		/**
+		 * Parse the content from the start of the chunk until a statement is
+		 * completed at one of the given boundaries
+		 * 
+		 * @param bounds
+		 *            chunk boundaries
+		 * @param from
+		 *            index of the first boundary to check
+		 * @return index of the boundary reached
+		 */
+		int until(int[] bounds, int from) {
+			CharBuffer chars = window(start, content.length());
+			Parser parser = new Parser(new BufferSource(chars), options, first);
+			parser.count = first ? 0 : 1;
+			int index = from;
+			for (SQL sql = parser.next(); sql != null; sql = parser.next()) {
+				sqls.add(sql);
+				int position = start + parser.lastEnd + 1;
+				while (index < bounds.length - 1 && bounds[index] < position) {
+					index++;
+				}
+				if (index < bounds.length - 1 && bounds[index] == position) {
+					end = position;
+					clean = true;
+					return index;
+				}
+			}
+			clean = true;
+			return bounds.length - 1;
+		}
+
+		/**
+		 * 
+		 * @return the range of the content sharing its array
+		 */
+		CharBuffer window(int from, int to) {
+			CharBuffer chars = content.duplicate();
+			chars.limit(content.position() + to);
+			chars.position(content.position() + from);
+			return chars.slice();
+		}
+	}
+
+	/**
+	 * Character input of the parser with a limited look behind and look ahead
+	 * around the current reading position
+	 */
+	private interface CharSource {
+		/**
+		 * 
+		 * @return the next character, '\0' once the end of the input is passed
+		 */
+		char read() throws IOException;
+
+		/**
+		 * 
+		 * @return the character i positions before the current one or '\0'
+		 */
+		char prev(int i) throws IOException;
+
+		/**
+		 * 
+		 * @return the character i positions after the current one or '\0'
+		 */
+		char next(int i) throws IOException;
+
+		/**
+		 * 
+		 * @return if there are characters left to read
+		 */
+		boolean hasNext() throws IOException;
+
+		/**
+		 * 
+		 * @return index of the current character
+		 */
+		int position();
+
+		/**
+		 * 
+		 * @return array holding all the characters of the source, null if the
+		 *         source is read in parts
+		 */
+		char[] array();
+
+		/**
+		 * 
+		 * @return index of the first character in the {@link #array()}
+		 */
+		int offset();
+
+		/**
+		 * 
+		 * @return number of the characters of the source, -1 if unknown
+		 */
+		int length();
+	}
+
+	/**
+	 * A source reading directly from a decoded buffer, used for the memory
+	 * mapped files
+	 */
+	private static final class BufferSource implements CharSource {
+		final CharBuffer chars;
+		final int length;
+		int pos = -1;
+
+		BufferSource(CharBuffer chars) {
+			super();
+			this.chars = chars;
+			this.length = chars.limit();
+		}
+
+		@Override
+		public char[] array() {
+			return chars.hasArray() ? chars.array() : null;
+		}
+
+		@Override
+		public int offset() {
+			return chars.hasArray() ? chars.arrayOffset() : 0;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char read() {
+			++pos;
+			return pos < length ? chars.get(pos) : '\0';
+		}
+
+		@Override
+		public char prev(int i) {
+			int index = pos - i;
+			return index >= 0 && index < length ? chars.get(index) : '\0';
+		}
+
+		@Override
+		public char next(int i) {
+			int index = pos + i;
+			return index >= 0 && index < length ? chars.get(index) : '\0';
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pos < length;
+		}
+
+		@Override
+		public int position() {
+			return pos;
+		}
 	}
 
 	/**
@@ -626,7 +1312,7 @@ public class SQLReader {
 	 * @author omer.dogan
 	 * 
 	 */
-	private static final class CachedReader {
+	private static final class CachedReader implements CharSource {
 		Reader r;
 		char[] chars;
 		char[] prev;
@@ -714,6 +1400,30 @@ public class SQLReader {
 			return chars[index];
 		}
 
+		/**
+		 * 
+		 * @return index of the current character
+		 */
+		public int position() {
+			return pos;
+		}
+
+		/**
+		 * 
+		 * @return null, the characters are read in parts
+		 */
+		public char[] array() {
+			return null;
+		}
+
+		public int offset() {
+			return 0;
+		}
+
+		public int length() {
+			return -1;
+		}
+
 		/**
 		 * 
 		 * @return
@@ -737,7 +1447,7 @@ public class SQLReader {
 		 * @return
 		 * @throws IOException
 		 */
-		private final char read() throws IOException {
+		public char read() throws IOException {
 			if (!isInitialized) {
 				init();
 			}
@@ -805,6 +1515,20 @@ public class SQLReader {
 			this.keepComments = keepComments;
 		}
 
+		/**
+		 * 
+		 * @return a copy of the options with empty parameter statistics
+		 */
+		Options copy() {
+			Options copy = new Options(params, keepComments);
+			copy.keepNewLines = keepNewLines;
+			copy.bufferSize = bufferSize;
+			copy.disableFormat = disableFormat;
+			copy.wordSeperators = wordSeperators;
+			copy.plsqlStart = plsqlStart;
+			return copy;
+		}
+
 		/**
 		 * 
 		 * @return
@@ -0,0 +1,592 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import tr.com.olives4j.sql.SQLReader.Options;
+
+/**
+ * Registry of the named statements read from the sql files of directories or
+ * classpath prefixes. A statement is registered by the name given with its
+ * NAMED annotation, the statements without a name are ignored.
+ * 
+ * <p>
+ * The statements are held in an immutable snapshot which is replaced as a
+ * whole, so {@link #get(String)} never locks and never sees a partially
+ * loaded state. When the directories are watched by {@link #watch()}, the
+ * changed files are parsed by the watcher thread and the snapshot is swapped
+ * only after all of them are parsed. A reload failure, e.g. a parse error or
+ * a duplicate name, keeps the previous snapshot and is reported by
+ * {@link #lastError()}.
+ * 
+ * <pre>
+ * SQLRegistry registry = new SQLRegistry().load(Paths.get("sql")).watch();
+ * SQL sql = registry.get("search_customer");
+ * </pre>
+ * 
+ * @author omer.dogan
+ * 
+ */
+public class SQLRegistry implements Closeable {
+	/** Extension of the sql files **/
+	private static final String EXTENSION = ".sql";
+	/** Time waited for the following events of a change in milliseconds **/
+	static final long SETTLE_MILLIS = 50;
+
+	/** Charset of the sql files **/
+	final Charset charset;
+	/** Reader options, copied for each file **/
+	final Options options;
+	/** Current snapshot of the statements **/
+	final AtomicReference<State> state = new AtomicReference<State>(new State());
+	/** Loaded directories **/
+	final List<Path> directories = new ArrayList<Path>();
+	/** Loaded classpath resources which can not be watched, by source name **/
+	final Map<String, URL> resources = new LinkedHashMap<String, URL>();
+	/** Watch service of the directories, null if not watched **/
+	WatchService watcher;
+	/** Failure of the last reload, null if it succeeded **/
+	volatile RuntimeException lastError;
+
+	/**
+	 * Construct a registry reading UTF-8 files with the default options
+	 */
+	public SQLRegistry() {
+		this(Charset.forName("UTF-8"), null);
+	}
+
+	/**
+	 * 
+	 * @param charset
+	 *            charset of the sql files
+	 * @param options
+	 *            reader options, may be null
+	 */
+	public SQLRegistry(Charset charset, Options options) {
+		super();
+		this.charset = charset;
+		this.options = options == null ? new Options() : options;
+	}
+
+	/**
+	 * Load the sql files in the given directory and its sub directories
+	 * 
+	 * @param directory
+	 *            directory of the sql files
+	 * @return this
+	 */
+	public SQLRegistry load(Path directory) {
+		final Path root = directory.toAbsolutePath().normalize();
+		final Map<String, Map<String, SQL>> changes = new LinkedHashMap<String, Map<String, SQL>>();
+		walk(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (isSQLFile(file)) {
+					changes.put(file.toString(), parse(file));
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		update(changes);
+
+		synchronized (directories) {
+			directories.add(root);
+			if (watcher != null) {
+				register(root);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Load the sql files under the given classpath prefix. The files in the
+	 * directories of the classpath are watched like the other directories, the
+	 * files in the jars are loaded once.
+	 * 
+	 * @param loader
+	 *            class loader of the resources
+	 * @param prefix
+	 *            resource path of the directory holding the sql files, e.g.
+	 *            "sql/customer"
+	 * @return this
+	 */
+	public SQLRegistry load(ClassLoader loader, String prefix) {
+		try {
+			Map<String, Map<String, SQL>> changes = new LinkedHashMap<String, Map<String, SQL>>();
+			Map<String, URL> found = new LinkedHashMap<String, URL>();
+			Enumeration<URL> urls = loader.getResources(prefix);
+			while (urls.hasMoreElements()) {
+				URL url = urls.nextElement();
+				if ("file".equals(url.getProtocol())) {
+					load(Paths.get(url.toURI()));
+					continue;
+				}
+
+				URLConnection connection = url.openConnection();
+				if (!(connection instanceof JarURLConnection)) {
+					throw new RuntimeException("Unsupported sql resource location : " + url);
+				}
+				JarURLConnection jarConnection = (JarURLConnection) connection;
+				jarConnection.setUseCaches(false);
+				String entryPrefix = jarConnection.getEntryName();
+				JarFile jar = jarConnection.getJarFile();
+				try {
+					Enumeration<JarEntry> entries = jar.entries();
+					while (entries.hasMoreElements()) {
+						JarEntry entry = entries.nextElement();
+						if (entry.getName().startsWith(entryPrefix) && entry.getName().endsWith(EXTENSION)) {
+							URL resource = new URL("jar:" + jarConnection.getJarFileURL() + "!/" + entry.getName());
+							found.put(resource.toString(), resource);
+						}
+					}
+				} finally {
+					jar.close();
+				}
+			}
+
+			for (Map.Entry<String, URL> entry : found.entrySet()) {
+				changes.put(entry.getKey(), parse(entry.getValue()));
+			}
+			update(changes);
+			synchronized (directories) {
+				resources.putAll(found);
+			}
+			return this;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("Could not load the sql resources : " + prefix, e);
+		}
+	}
+
+	/**
+	 * Start watching the loaded directories and the directories loaded later.
+	 * The changed files are reloaded by a daemon thread until the registry is
+	 * closed.
+	 * 
+	 * @return this
+	 */
+	public SQLRegistry watch() {
+		synchronized (directories) {
+			if (watcher != null) {
+				return this;
+			}
+			try {
+				watcher = FileSystems.getDefault().newWatchService();
+			} catch (IOException e) {
+				throw new RuntimeException("Could not watch the sql directories", e);
+			}
+			for (Path directory : directories) {
+				register(directory);
+			}
+		}
+
+		final WatchService service = watcher;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				process(service);
+			}
+		}, "SQLRegistry-watcher");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * Reload all of the loaded files and resources
+	 * 
+	 * @return this
+	 */
+	public SQLRegistry reload() {
+		List<Path> roots;
+		Map<String, URL> urls;
+		synchronized (directories) {
+			roots = new ArrayList<Path>(directories);
+			urls = new LinkedHashMap<String, URL>(resources);
+		}
+
+		final Map<String, Map<String, SQL>> changes = new LinkedHashMap<String, Map<String, SQL>>();
+		for (String source : state.get().sources.keySet()) {
+			changes.put(source, null);
+		}
+		for (Path root : roots) {
+			walk(root, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					if (isSQLFile(file)) {
+						changes.put(file.toString(), parse(file));
+					}
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		for (Map.Entry<String, URL> entry : urls.entrySet()) {
+			changes.put(entry.getKey(), parse(entry.getValue()));
+		}
+		update(changes);
+		return this;
+	}
+
+	/**
+	 * 
+	 * @param name
+	 *            statement name
+	 * @return a clone of the named statement to be bound by the caller, null
+	 *         if there is no statement with the given name
+	 */
+	public SQL get(String name) {
+		SQL sql = state.get().sqls.get(name);
+		return sql == null ? null : sql.clone();
+	}
+
+	/**
+	 * 
+	 * @param name
+	 *            statement name
+	 * @return if a statement registered with the given name
+	 */
+	public boolean contains(String name) {
+		return state.get().sqls.containsKey(name);
+	}
+
+	/**
+	 * 
+	 * @return names of the registered statements
+	 */
+	public Set<String> names() {
+		return state.get().sqls.keySet();
+	}
+
+	/**
+	 * 
+	 * @return number of the registered statements
+	 */
+	public int size() {
+		return state.get().sqls.size();
+	}
+
+	/**
+	 * 
+	 * @return failure of the last reload done by the watcher, null if it
+	 *         succeeded
+	 */
+	public RuntimeException lastError() {
+		return lastError;
+	}
+
+	/**
+	 * Stop watching the directories, the registered statements are kept
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (directories) {
+			if (watcher != null) {
+				watcher.close();
+				watcher = null;
+			}
+		}
+	}
+
+	/**
+	 * Handle the events of the watch service until it is closed. The events
+	 * following a change within {@link #SETTLE_MILLIS} are collected, so a
+	 * file saved in several writes is parsed once.
+	 */
+	void process(WatchService service) {
+		try {
+			while (true) {
+				WatchKey key = service.take();
+				Set<Path> changed = new LinkedHashSet<Path>();
+				boolean overflow = false;
+				while (key != null) {
+					Path directory = (Path) key.watchable();
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == OVERFLOW) {
+							overflow = true;
+							continue;
+						}
+						Path path = directory.resolve((Path) event.context());
+						if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+							synchronized (directories) {
+								if (watcher != null) {
+									register(path);
+								}
+							}
+							changed.addAll(files(path));
+						} else if (isSQLFile(path) || event.kind() == ENTRY_DELETE) {
+							changed.add(path);
+						}
+					}
+					key.reset();
+					key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+				}
+
+				try {
+					if (overflow) {
+						reload();
+					} else {
+						reload(changed);
+					}
+					lastError = null;
+				} catch (RuntimeException e) {
+					lastError = e;
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// registry closed
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Parse the given files and swap them into the registry at once. A deleted
+	 * file is removed from the registry, and so are the files under a deleted
+	 * directory, since moving a directory sends no events for its files.
+	 * 
+	 * @param files
+	 *            changed files and deleted directories
+	 */
+	void reload(Set<Path> files) {
+		Map<String, Map<String, SQL>> changes = new LinkedHashMap<String, Map<String, SQL>>();
+		Set<String> sources = state.get().sources.keySet();
+		for (Path file : files) {
+			if (Files.isRegularFile(file)) {
+				changes.put(file.toString(), parse(file));
+				continue;
+			}
+			if (isSQLFile(file)) {
+				changes.put(file.toString(), null);
+			}
+			String prefix = file.toString() + file.getFileSystem().getSeparator();
+			for (String source : sources) {
+				if (source.startsWith(prefix)) {
+					changes.put(source, null);
+				}
+			}
+		}
+		update(changes);
+	}
+
+	/**
+	 * Swap a snapshot holding the given changes into the registry. The
+	 * snapshot is built again if another update is swapped meanwhile.
+	 * 
+	 * @param changes
+	 *            named statements by source, null for a removed source
+	 */
+	void update(Map<String, Map<String, SQL>> changes) {
+		if (changes.isEmpty()) {
+			return;
+		}
+		while (true) {
+			State current = state.get();
+			State next = current.with(changes);
+			if (state.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @param file
+	 *            sql file
+	 * @return named statements of the file
+	 */
+	Map<String, SQL> parse(Path file) {
+		try {
+			return named(SQLReader.read(file, charset, options.copy()), file.toString());
+		} catch (RuntimeException e) {
+			throw new RuntimeException("Could not read the sql file : " + file, e);
+		}
+	}
+
+	/**
+	 * 
+	 * @param url
+	 *            sql resource
+	 * @return named statements of the resource
+	 */
+	Map<String, SQL> parse(URL url) {
+		try {
+			Reader reader = new InputStreamReader(url.openStream(), charset);
+			try {
+				return named(SQLReader.read(reader, options.copy()), url.toString());
+			} finally {
+				reader.close();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Could not read the sql resource : " + url, e);
+		}
+	}
+
+	/**
+	 * 
+	 * @return statements having a NAMED annotation by name
+	 */
+	private static Map<String, SQL> named(SQLCollection sqls, String source) {
+		Map<String, SQL> named = new LinkedHashMap<String, SQL>();
+		for (SQL sql : sqls) {
+			if (!SQLReader.isNamed(sql)) {
+				continue;
+			}
+			if (named.put(sql.name(), sql) != null) {
+				throw new RuntimeException("Duplicate sql name " + sql.name() + " in " + source);
+			}
+		}
+		return named;
+	}
+
+	/**
+	 * 
+	 * @return if the given path has the sql file extension
+	 */
+	private static boolean isSQLFile(Path path) {
+		return path.getFileName() != null && path.getFileName().toString().endsWith(EXTENSION);
+	}
+
+	/**
+	 * 
+	 * @return the sql files in the given directory and its sub directories
+	 */
+	private static List<Path> files(Path directory) {
+		final List<Path> files = new ArrayList<Path>();
+		walk(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (isSQLFile(file)) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return files;
+	}
+
+	/**
+	 * Register the given directory and its sub directories to the watch
+	 * service
+	 */
+	private void register(Path directory) {
+		walk(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * 
+	 * @param directory
+	 * @param visitor
+	 */
+	private static void walk(Path directory, SimpleFileVisitor<Path> visitor) {
+		try {
+			Files.walkFileTree(directory, visitor);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not walk the sql directory : " + directory, e);
+		}
+	}
+
+	// Inner classes /////////////////////////////////////////
+
+	/**
+	 * Immutable snapshot of the registered statements
+	 */
+	static final class State {
+		/** Named statements of each source **/
+		final Map<String, Map<String, SQL>> sources;
+		/** Named statements of all sources **/
+		final Map<String, SQL> sqls;
+
+		State() {
+			this(Collections.<String, Map<String, SQL>> emptyMap());
+		}
+
+		State(Map<String, Map<String, SQL>> sources) {
+			super();
+			Map<String, SQL> sqls = new LinkedHashMap<String, SQL>();
+			for (Map.Entry<String, Map<String, SQL>> source : sources.entrySet()) {
+				for (Map.Entry<String, SQL> entry : source.getValue().entrySet()) {
+					if (sqls.put(entry.getKey(), entry.getValue()) != null) {
+						throw new RuntimeException("Duplicate sql name " + entry.getKey() + " in " + source.getKey());
+					}
+				}
+			}
+			this.sources = sources;
+			this.sqls = Collections.unmodifiableMap(sqls);
+		}
+
+		/**
+		 * 
+		 * @param changes
+		 *            named statements by source, null for a removed source
+		 * @return a new snapshot with the given changes
+		 */
+		State with(Map<String, Map<String, SQL>> changes) {
+			Map<String, Map<String, SQL>> next = new LinkedHashMap<String, Map<String, SQL>>(sources);
+			for (Map.Entry<String, Map<String, SQL>> change : changes.entrySet()) {
+				if (change.getValue() == null) {
+					next.remove(change.getKey());
+				} else {
+					next.put(change.getKey(), change.getValue());
+				}
+			}
+			return new State(next);
+		}
+	}
+}
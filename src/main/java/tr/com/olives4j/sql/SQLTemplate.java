@@ -0,0 +1,615 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tr.com.olives4j.sql.SQLBindings.Parameters;
+import tr.com.olives4j.sql.SQLBindings.SetterPlan;
+
+import tr.com.olives4j.stree.Stree;
+import tr.com.olives4j.stree.StreeClause;
+import tr.com.olives4j.stree.StreeGroup;
+import tr.com.olives4j.stree.StreeNode;
+
+/**
+ * An immutable, compiled form of a {@link SQL}. The tree is flattened into an
+ * array of operations referencing static text segments and binding slots, so
+ * rendering is a single linear pass without walking the tree.
+ * 
+ * <p>
+ * Binding values are provided per slot at render time. Slots are numbered in
+ * the order the binding nodes appear in the tree, a named binding used more
+ * than once occupies a slot for each occurrence.
+ * 
+ * <p>
+ * A template is safe to share between threads. The state of an execution is
+ * held by a {@link BindingContext}, the values and the exclusions of the slots,
+ * so a sql read once may be used by many threads without cloning it.
+ * 
+ * <pre>
+ * SQLTemplate template = sqls.get("search_customer").compile();
+ * ...
+ * BindingContext context = template.context().bind("store_id", 1);
+ * PreparedStatement pstmt = connection.prepareStatement(context.render());
+ * context.apply(pstmt);
+ * </pre>
+ * 
+ * @see SQL#compile()
+ * @author omer.dogan
+ * 
+ */
+public final class SQLTemplate {
+	/** Operation emitting a static text segment **/
+	static final byte TEXT = 0;
+	/** Operation emitting the placeholders of a binding slot **/
+	static final byte BIND = 1;
+	/** Operation starting a group which is skipped if any of its slots excluded **/
+	static final byte GROUP = 2;
+
+	/** Name of the compiled sql **/
+	final String name;
+	/** Kind of each operation **/
+	final byte[] kinds;
+	/** Text index for TEXT, slot index for BIND, end operation for GROUP **/
+	final int[] args;
+	/** First slot of GROUP operations **/
+	final int[] slotFrom;
+	/** Slot after the last slot of GROUP operations **/
+	final int[] slotTo;
+	/** Static text segments **/
+	final String[] texts;
+	/** Binding slots **/
+	final Slot[] slots;
+	/** Slot indexes by binding name **/
+	final Map<String, int[]> index;
+	/** Parameter setters of the slots, shared by the contexts of all threads **/
+	final SetterPlan setters;
+
+	/**
+	 * Construct template from the compiled operations
+	 */
+	SQLTemplate(String name, byte[] kinds, int[] args, int[] slotFrom, int[] slotTo, String[] texts, Slot[] slots) {
+		super();
+		this.name = name;
+		this.kinds = kinds;
+		this.args = args;
+		this.slotFrom = slotFrom;
+		this.slotTo = slotTo;
+		this.texts = texts;
+		this.slots = slots;
+		this.index = new HashMap<String, int[]>();
+		this.setters = new SetterPlan(slots.length);
+		for (int i = 0; i < slots.length; i++) {
+			Object value = slots[i].value;
+			if (!(value instanceof Collection) && !(value instanceof Object[])) {
+				setters.plan(i, value);
+			}
+			String slotName = slots[i].name;
+			if (slotName == null) {
+				continue;
+			}
+			int[] old = index.get(slotName);
+			int[] indexes = old == null ? new int[1] : new int[old.length + 1];
+			if (old != null) {
+				System.arraycopy(old, 0, indexes, 0, old.length);
+			}
+			indexes[indexes.length - 1] = i;
+			index.put(slotName, indexes);
+		}
+	}
+
+	/**
+	 * Compile the given tree into a template
+	 * 
+	 * @param sql
+	 *            source sql
+	 * @return a new template
+	 */
+	static SQLTemplate compile(SQL sql) {
+		Compiler compiler = new Compiler();
+		compiler.emitChildren(sql);
+		return compiler.build(sql.name());
+	}
+
+	/**
+	 * 
+	 * @return name of the compiled sql
+	 */
+	public String name() {
+		return name;
+	}
+
+	/**
+	 * 
+	 * @return number of binding slots
+	 */
+	public int size() {
+		return slots.length;
+	}
+
+	/**
+	 * 
+	 * @param slot
+	 *            slot index
+	 * @return binding name of the given slot
+	 */
+	public String getName(int slot) {
+		return slots[slot].name;
+	}
+
+	/**
+	 * 
+	 * @param name
+	 *            binding name
+	 * @return indexes of the slots having the given name
+	 */
+	public int[] slots(String name) {
+		int[] indexes = index.get(name);
+		return indexes == null ? new int[0] : indexes.clone();
+	}
+
+	/**
+	 * 
+	 * @return a new array holding the values of the binding nodes when this
+	 *         template compiled
+	 */
+	public Object[] values() {
+		Object[] values = new Object[slots.length];
+		for (int i = 0; i < slots.length; i++) {
+			values[i] = slots[i].value;
+		}
+		return values;
+	}
+
+	/**
+	 * 
+	 * @param values
+	 *            binding values by slot index
+	 * @return sql string
+	 */
+	public String render(Object[] values) {
+		return render(values, new StringBuilder()).toString();
+	}
+
+	/**
+	 * 
+	 * @return a new binding context holding the values of the binding nodes when
+	 *         this template compiled
+	 */
+	public BindingContext context() {
+		return new BindingContext(this, values());
+	}
+
+	/**
+	 * 
+	 * @param values
+	 *            binding values by slot index, the array is used without copying
+	 * @return a new binding context holding the given values
+	 */
+	public BindingContext context(Object[] values) {
+		if (values.length != slots.length) {
+			throw new IllegalArgumentException(
+					"Template " + name + " has " + slots.length + " binding slots but found " + values.length + " values");
+		}
+		return new BindingContext(this, values);
+	}
+
+	/**
+	 * Render the sql with the given binding values into the buffer
+	 * 
+	 * @param values
+	 *            binding values by slot index
+	 * @param buffer
+	 *            target buffer
+	 * @return the buffer
+	 */
+	public StringBuilder render(Object[] values, StringBuilder buffer) {
+		if (values.length != slots.length) {
+			throw new IllegalArgumentException(
+					"Template " + name + " has " + slots.length + " binding slots but found " + values.length + " values");
+		}
+		return render(values, null, buffer);
+	}
+
+	/**
+	 * 
+	 * @param slot
+	 *            slot index
+	 * @param values
+	 *            binding values by slot index
+	 * @param exclusions
+	 *            bitset of the slots excluded by the binding context, may be
+	 *            null
+	 * @return if the slot is excluded
+	 */
+	boolean isExcluded(int slot, Object[] values, long[] exclusions) {
+		Slot target = slots[slot];
+		return target.exclude || (exclusions != null && (exclusions[slot >> 6] & (1L << slot)) != 0)
+				|| (target.optional && target.defaultValue == null && SQLBindNode.isNull(values[slot]));
+	}
+
+	/**
+	 * Render the sql with the given binding values and exclusions
+	 */
+	StringBuilder render(Object[] values, long[] exclusions, StringBuilder buffer) {
+		// excluded[i] holds number of the excluded slots before slot i
+		int[] excluded = new int[slots.length + 1];
+		for (int i = 0; i < slots.length; i++) {
+			excluded[i + 1] = excluded[i] + (isExcluded(i, values, exclusions) ? 1 : 0);
+		}
+
+		for (int op = 0; op < kinds.length; op++) {
+			int arg = args[op];
+			switch (kinds[op]) {
+			case GROUP:
+				if (excluded[slotTo[op]] != excluded[slotFrom[op]]) {
+					op = arg - 1;
+				}
+				break;
+			case TEXT:
+				if (buffer.length() == 0 || Character.isWhitespace(buffer.charAt(buffer.length() - 1))) {
+					buffer.append(texts[arg]);
+				} else {
+					buffer.append(' ').append(texts[arg]);
+				}
+				break;
+			case BIND:
+				if (excluded[arg + 1] != excluded[arg]) {
+					break;
+				}
+				if (buffer.length() == 0 || !Character.isWhitespace(buffer.charAt(buffer.length() - 1))) {
+					buffer.append(' ');
+				}
+				Slot slot = slots[arg];
+				Object value = SQLBindNode.value(values[arg], slot.defaultValue, slot.optional);
+				Integer arrayType = SQLBindNode.arrayType(value, slot.jdbcType, slot.dialect, slot.arrayThreshold);
+				if (arrayType != null) {
+					slot.dialect.render(buffer, arrayType);
+				} else {
+					SQLBindNode.placeholders(buffer, value, slot.seperator, slot.buckets);
+				}
+				break;
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	public String toString() {
+		return render(values());
+	}
+
+	// Inner classes /////////////////////////////////////////
+
+	/**
+	 * Holds the properties of a binding node at compile time
+	 */
+	static final class Slot {
+		final String name;
+		final Object value;
+		final Object defaultValue;
+		final boolean optional;
+		final boolean exclude;
+		final boolean inline;
+		final Integer jdbcType;
+		final String seperator;
+		final int[] buckets;
+		final SQLDialect dialect;
+		final int arrayThreshold;
+
+		Slot(SQLBindNode node) {
+			super();
+			this.name = node.name;
+			this.value = node.value;
+			this.defaultValue = node.defaultValue;
+			this.optional = node.optional;
+			this.exclude = node.excludeFlag();
+			this.inline = node.inline;
+			this.jdbcType = node.jdbcType;
+			this.seperator = node.seperator;
+			this.buckets = node.buckets;
+			this.dialect = node.dialect;
+			this.arrayThreshold = node.arrayThreshold;
+		}
+	}
+
+	/**
+	 * Values and exclusions of the binding slots for a single execution of a
+	 * template. A context is not thread safe, each thread uses its own context
+	 * while sharing the template.
+	 */
+	public static final class BindingContext {
+		/** Rendered template **/
+		final SQLTemplate template;
+		/** Binding values by slot index **/
+		final Object[] values;
+		/** Bitset of the slots excluded in this context **/
+		final long[] exclusions;
+
+		BindingContext(SQLTemplate template, Object[] values) {
+			super();
+			this.template = template;
+			this.values = values;
+			this.exclusions = new long[(values.length + 63) >> 6];
+		}
+
+		/**
+		 * 
+		 * @return the template of this context
+		 */
+		public SQLTemplate template() {
+			return template;
+		}
+
+		/**
+		 * 
+		 * @param slot
+		 *            slot index
+		 * @return value of the slot
+		 */
+		public Object value(int slot) {
+			return values[slot];
+		}
+
+		/**
+		 * 
+		 * @param slot
+		 *            slot index
+		 * @param value
+		 *            binding value
+		 * @return this
+		 */
+		public BindingContext bind(int slot, Object value) {
+			values[slot] = value;
+			return this;
+		}
+
+		/**
+		 * Bind the value to all slots having the given name
+		 * 
+		 * @param name
+		 *            binding name
+		 * @param value
+		 *            binding value
+		 * @return this
+		 */
+		public BindingContext bind(String name, Object value) {
+			for (int slot : slots(name)) {
+				values[slot] = value;
+			}
+			return this;
+		}
+
+		/**
+		 * 
+		 * @param slot
+		 *            slot index
+		 * @param exclude
+		 *            if the slot and its group is excluded from the sql
+		 * @return this
+		 */
+		public BindingContext exclude(int slot, boolean exclude) {
+			if (exclude) {
+				exclusions[slot >> 6] |= 1L << slot;
+			} else {
+				exclusions[slot >> 6] &= ~(1L << slot);
+			}
+			return this;
+		}
+
+		/**
+		 * 
+		 * @param name
+		 *            binding name
+		 * @param exclude
+		 *            if the slots having the name and their groups are excluded
+		 *            from the sql
+		 * @return this
+		 */
+		public BindingContext exclude(String name, boolean exclude) {
+			for (int slot : slots(name)) {
+				exclude(slot, exclude);
+			}
+			return this;
+		}
+
+		/**
+		 * 
+		 * @return sql string rendered with the values of this context
+		 */
+		public String render() {
+			return template.render(values, exclusions, new StringBuilder()).toString();
+		}
+
+		/**
+		 * Set the values of the included slots to the given statement
+		 * 
+		 * @param pstmt
+		 *            target statement
+		 */
+		public void apply(PreparedStatement pstmt) {
+			Slot[] slots = template.slots;
+			try {
+				Parameters parameters = new Parameters(pstmt, template.setters);
+				for (int index = 0; index < slots.length; index++) {
+					if (template.isExcluded(index, values, exclusions)) {
+						continue;
+					}
+					Slot slot = slots[index];
+					Object value = SQLBindNode.value(values[index], slot.defaultValue, slot.optional);
+					parameters.bind(index, value, slot.jdbcType, slot.buckets, slot.dialect, slot.arrayThreshold);
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		/**
+		 * 
+		 * @return indexes of the slots having the given name
+		 */
+		private int[] slots(String name) {
+			int[] indexes = template.index.get(name);
+			if (indexes == null) {
+				throw new IllegalArgumentException("Template " + template.name + " has no binding named " + name);
+			}
+			return indexes;
+		}
+
+		@Override
+		public String toString() {
+			return render();
+		}
+	}
+
+	/**
+	 * Flatten a tree into template operations
+	 */
+	static final class Compiler {
+		final List<Byte> kinds = new ArrayList<Byte>();
+		final List<Integer> args = new ArrayList<Integer>();
+		final List<Integer> slotFrom = new ArrayList<Integer>();
+		final List<Integer> slotTo = new ArrayList<Integer>();
+		final List<String> texts = new ArrayList<String>();
+		final List<Slot> slots = new ArrayList<Slot>();
+
+		/**
+		 * 
+		 * @param group
+		 *            group whose children are emitted
+		 */
+		void emitChildren(StreeGroup group) {
+			List<StreeNode> nodes = SQL.childrenOf(group);
+			for (int i = 0; i < nodes.size(); i++) {
+				emit(nodes.get(i));
+			}
+		}
+
+		/**
+		 * 
+		 * @param node
+		 *            node to emit
+		 */
+		void emit(StreeNode node) {
+			if (node instanceof Stree) {
+				// Stree does not check the exclusion of its own children
+				emitChildren((StreeGroup) node);
+			} else if (node instanceof StreeGroup) {
+				if (isStaticExclude(node)) {
+					return;
+				}
+				if (!hasBinds(node)) {
+					emitChildren((StreeGroup) node);
+					return;
+				}
+				int op = add(GROUP, 0);
+				slotFrom.set(op, slots.size());
+				emitChildren((StreeGroup) node);
+				args.set(op, kinds.size());
+				slotTo.set(op, slots.size());
+			} else if (node instanceof SQLBindNode) {
+				add(BIND, slots.size());
+				slots.add(new Slot((SQLBindNode) node));
+			} else if (node instanceof StreeClause) {
+				CharSequence content = ((StreeClause) node).content();
+				if (node.isExclude() || content == null) {
+					return;
+				}
+				add(TEXT, texts.size());
+				texts.add(content.toString());
+			}
+		}
+
+		/**
+		 * 
+		 * @return index of the added operation
+		 */
+		int add(byte kind, int arg) {
+			kinds.add(kind);
+			args.add(arg);
+			slotFrom.add(0);
+			slotTo.add(0);
+			return kinds.size() - 1;
+		}
+
+		/**
+		 * 
+		 * @return if the node is excluded regardless of the binding values
+		 */
+		static boolean isStaticExclude(StreeNode node) {
+			if (node instanceof SQLBindNode) {
+				return false;
+			} else if (node instanceof StreeGroup) {
+				List<StreeNode> nodes = SQL.childrenOf((StreeGroup) node);
+				for (int i = 0; i < nodes.size(); i++) {
+					if (isStaticExclude(nodes.get(i))) {
+						return true;
+					}
+				}
+				return false;
+			}
+			return node.isExclude();
+		}
+
+		/**
+		 * 
+		 * @return if the node has any binding node
+		 */
+		static boolean hasBinds(StreeNode node) {
+			if (node instanceof SQLBindNode) {
+				return true;
+			} else if (node instanceof StreeGroup) {
+				List<StreeNode> nodes = SQL.childrenOf((StreeGroup) node);
+				for (int i = 0; i < nodes.size(); i++) {
+					if (hasBinds(nodes.get(i))) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * 
+		 * @return the template
+		 */
+		SQLTemplate build(String name) {
+			int size = kinds.size();
+			byte[] kindArray = new byte[size];
+			int[] argArray = new int[size];
+			int[] fromArray = new int[size];
+			int[] toArray = new int[size];
+			for (int i = 0; i < size; i++) {
+				kindArray[i] = kinds.get(i);
+				argArray[i] = args.get(i);
+				fromArray[i] = slotFrom.get(i);
+				toArray[i] = slotTo.get(i);
+			}
+			return new SQLTemplate(name, kindArray, argArray, fromArray, toArray, texts.toArray(new String[texts.size()]),
+					slots.toArray(new Slot[slots.size()]));
+		}
+	}
+}
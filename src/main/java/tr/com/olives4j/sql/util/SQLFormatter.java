@@ -2,9 +2,31 @@ package tr.com.olives4j.sql.util;
 
 import java.util.List;
 
+/**
+ * Formats sql text for logging, breaking lines before the clauses and placing
+ * the binding values as comments next to the parameters. Only the lowercase
+ * keywords are matched, the keywords written in upper case are left as they
+ * are.
+ * 
+ * <p>
+ * The output is only appended. The characters of the current word are held
+ * until it can not be a keyword anymore, so a line break is appended before
+ * them instead of being inserted into the buffer.
+ * 
+ */
 public class SQLFormatter {
 	public static final SQLFormatter INSTANCE = new SQLFormatter();
 
+	/** Keyword types **/
+	private static final int NONE = 0;
+	private static final int CLAUSE = 1;
+	private static final int WHERE = 2;
+	private static final int AND = 3;
+	private static final int SELECT = 4;
+
+	/** Length of the longest keyword **/
+	private static final int MAX_KEYWORD = 6;
+
 	/**
 	 * 
 	 * @return
@@ -35,12 +57,32 @@ public class SQLFormatter {
 	 */
 	public final StringBuilder format(CharSequence sql, int indent, List<?> params, StringBuilder buffer,
 			boolean keepFormat) {
-		StringBuilder lastWord = new StringBuilder();
+		return format(sql, indent, params, buffer, keepFormat, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * 
+	 * @param sql
+	 * @param indent
+	 * @param params
+	 * @param buffer
+	 * @param keepFormat
+	 * @param maxLength
+	 *            maximum number of the characters appended to the buffer, the
+	 *            rest of the sql is not formatted and a truncation mark is
+	 *            appended
+	 * @return
+	 */
+	public final StringBuilder format(CharSequence sql, int indent, List<?> params, StringBuilder buffer,
+			boolean keepFormat, int maxLength) {
+		int start = buffer.length();
+		char[] word = new char[MAX_KEYWORD];
+		int wordLength = 0;
 		char NL = '\n';
 		boolean lastiswhite = false;
 
 		int baseIndent = indent;
-		char[] chars = sql.toString().toCharArray();
+		int length = sql.length();
 		int valIndex = 0;
 		boolean beforeWhere = true;
 		boolean instring = false;
@@ -54,55 +96,38 @@ public class SQLFormatter {
 					buffer.append(" ");
 				}
 			}
-			for (int index = 0; index < chars.length; index++) {
-				char c = chars[index];
-				String sLastWord = lastWord.toString();
+			Output out = new Output(buffer);
+			StringBuilder pending = out.pending;
 
-				if (!keepFormat) {
-					if (sLastWord.equals("where") || sLastWord.equals("from") //
-							|| sLastWord.equals("group") //
-							|| sLastWord.toString().equals("set") //
-							|| sLastWord.equals("having") //
-							|| sLastWord.equals("order") //
-							|| sLastWord.equals("left")//
-							|| sLastWord.equals("inner")//
-							|| sLastWord.equals("outer")) {
-						buffer.insert(buffer.length() - sLastWord.length(), NL);
-						for (int i2 = 0; i2 < intSubQueryPad + baseIndent; i2++) {
-							buffer.insert(buffer.length() - sLastWord.length(), " ");
-						}
+			int index = 0;
+			for (; index < length && out.length() - start <= maxLength; index++) {
+				char c = sql.charAt(index);
+				int keyword = keyword(word, wordLength);
 
-						if (beforeWhere && sLastWord.equals("where")) {
+				if (!keepFormat) {
+					if (keyword == CLAUSE || keyword == WHERE) {
+						out.newLine(intSubQueryPad + baseIndent);
+						if (keyword == WHERE) {
 							beforeWhere = false;
 						}
-					} else if (sLastWord.equals("and") && beforeWhere == false && !instring) {
-						if (buffer.charAt(buffer.length() - sLastWord.length() - 1) != NL) {
-							buffer.insert(buffer.length() - sLastWord.length(), NL);
-							for (int i2 = 0; i2 < intSubQueryPad + (baseIndent * 2); i2++) {
-								buffer.insert(buffer.length() - sLastWord.length(), " ");
-							}
+					} else if (keyword == AND && beforeWhere == false && !instring) {
+						if (buffer.charAt(buffer.length() - 1) != NL) {
+							out.newLine(intSubQueryPad + (baseIndent * 2));
 						}
 					}
 				}
 
-				if ((c == '"' || c == '\'') && (buffer.length() > 0 && buffer.charAt(buffer.length() - 1) != '\\')) {
+				if ((c == '"' || c == '\'') && (out.length() > 0 && out.last() != '\\')) {
 					instring = !instring;
 				}
 
-				if (!instring && sLastWord.equals("select")) {
-					boolean subQuery = false;
-					int tmpi2 = 0;
-					for (int tmpi = buffer.length() - 1; tmpi >= 0; tmpi--) {
-						char tmpch = buffer.charAt(tmpi);
-						tmpi2++;
-						if (tmpch == '(') {
-							intSubQueryPad = 0;
-							subQuery = true;
-						} else if (subQuery && tmpch == '\n') {
-							groupingCount = 1;
-							intSubQueryPad = tmpi2 - 7;
-							break;
-						}
+				// a sub query is padded to the column of its enclosing parenthesis
+				if (!instring && keyword == SELECT && out.lastOpen >= 0) {
+					if (out.newLineBeforeOpen >= 0) {
+						groupingCount = 1;
+						intSubQueryPad = out.length() - out.newLineBeforeOpen - 7;
+					} else {
+						intSubQueryPad = 0;
 					}
 				}
 
@@ -117,47 +142,52 @@ public class SQLFormatter {
 				}
 
 				if (c == '?' && !instring) {
-					buffer.append(c);
+					pending.append(c);
 
-					buffer.append(" /* ");
+					pending.append(" /* ");
 					if (params != null && valIndex < params.size()) {
-						Object value = params.get(valIndex);
-						String[] val = (value + "").split("[\r\n]+", 2);
-						buffer.append(val[0]);
+						appendFirstLine(pending, String.valueOf(params.get(valIndex)));
 					}
-					buffer.append("*/");
+					pending.append("*/");
 					valIndex++;
 
-					if ((index + 3) < chars.length && chars[index + 1] == '.' && chars[index + 2] == '.'
-							&& chars[index + 3] == '.') {
+					if ((index + 3) < length && sql.charAt(index + 1) == '.' && sql.charAt(index + 2) == '.'
+							&& sql.charAt(index + 3) == '.') {
 						index += 3;
 					}
 				}
 				if (!keepFormat) {
-					if (Character.isWhitespace(c)) {
+					if (SQLLexer.isWhitespace(c)) {
 						if (!lastiswhite) {
-							buffer.append(c);
+							pending.append(c);
 						}
 						lastiswhite = true;
 					} else {
-						buffer.append(c);
+						pending.append(c);
 						lastiswhite = false;
-						if (c == NL) {
-							for (int i2 = 0; i2 < intSubQueryPad + 8; i2++) {
-								buffer.append(" ");
-							}
-						}
 					}
 				} else {
-					buffer.append(c);
+					pending.append(c);
 				}
 
-				lastWord.append(c);
-				if (Character.isWhitespace(c) || c == '(' || c == ')') {
-					lastWord.setLength(0);
+				if (SQLLexer.isWhitespace(c) || c == '(' || c == ')') {
+					wordLength = 0;
+					out.flush();
+				} else {
+					if (wordLength < MAX_KEYWORD) {
+						word[wordLength] = c;
+					}
+					wordLength++;
+					if (wordLength > MAX_KEYWORD) {
+						out.flush();
+					}
 				}
 			}
-			// buffer.append(sql.subSequence(j, sql.length()));
+			out.flush();
+			if (index < length || buffer.length() - start > maxLength) {
+				buffer.setLength(Math.min(buffer.length(), start + maxLength));
+				buffer.append(" ... (truncated at ").append(maxLength).append(" characters)");
+			}
 			return buffer;
 		} catch (RuntimeException e) {
 			buffer.setLength(0);
@@ -168,4 +198,117 @@ public class SQLFormatter {
 			return buffer;
 		}
 	}
+
+	/**
+	 * 
+	 * @param word
+	 * @param length
+	 * @return type of the keyword or {@link #NONE}
+	 */
+	private static int keyword(char[] word, int length) {
+		if (length < 3 || length > MAX_KEYWORD) {
+			return NONE;
+		}
+		for (int i = 0; i < length; i++) {
+			if (word[i] < 'a' || word[i] > 'z') {
+				return NONE;
+			}
+		}
+		switch (SQLLexer.keyword(word, 0, length)) {
+		case SQLLexer.WHERE:
+			return WHERE;
+		case SQLLexer.FROM:
+		case SQLLexer.GROUP:
+		case SQLLexer.SET:
+		case SQLLexer.HAVING:
+		case SQLLexer.ORDER:
+		case SQLLexer.LEFT:
+		case SQLLexer.INNER:
+		case SQLLexer.OUTER:
+			return CLAUSE;
+		case SQLLexer.AND:
+			return AND;
+		case SQLLexer.SELECT:
+			return SELECT;
+		default:
+			return NONE;
+		}
+	}
+
+	/**
+	 * Append the value up to its first line break
+	 */
+	private static void appendFirstLine(StringBuilder buffer, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\r' || c == '\n') {
+				break;
+			}
+			buffer.append(c);
+		}
+	}
+
+	/**
+	 * Formatted output with the current word held apart
+	 */
+	private static final class Output {
+		final StringBuilder buffer;
+		/** Output of the current word while it may be a keyword **/
+		final StringBuilder pending = new StringBuilder();
+		/** Index of the last line break in the buffer **/
+		int lastNewLine = -1;
+		/** Index of the last open parenthesis in the buffer **/
+		int lastOpen = -1;
+		/** Index of the last line break before the last open parenthesis **/
+		int newLineBeforeOpen = -1;
+
+		Output(StringBuilder buffer) {
+			super();
+			this.buffer = buffer;
+			track(0);
+		}
+
+		/**
+		 * Append a line break and padding before the current word
+		 */
+		void newLine(int pad) {
+			buffer.append('\n');
+			lastNewLine = buffer.length() - 1;
+			for (int i = 0; i < pad; i++) {
+				buffer.append(' ');
+			}
+		}
+
+		/**
+		 * Move the current word to the buffer
+		 */
+		void flush() {
+			if (pending.length() > 0) {
+				int from = buffer.length();
+				buffer.append(pending);
+				pending.setLength(0);
+				track(from);
+			}
+		}
+
+		void track(int from) {
+			for (int i = from; i < buffer.length(); i++) {
+				char c = buffer.charAt(i);
+				if (c == '\n') {
+					lastNewLine = i;
+				} else if (c == '(') {
+					lastOpen = i;
+					newLineBeforeOpen = lastNewLine;
+				}
+			}
+		}
+
+		int length() {
+			return buffer.length() + pending.length();
+		}
+
+		char last() {
+			return pending.length() > 0 ? pending.charAt(pending.length() - 1) : buffer.charAt(buffer.length() - 1);
+		}
+	}
 }
@@ -0,0 +1,400 @@
+/*******************************************************************************
+ *   Copyright (c) 2016, Omer Dogan.  All rights reserved.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *  
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *    
+ *******************************************************************************/
+package tr.com.olives4j.sql.util;
+
+/**
+ * A reusable sql lexer emitting token kinds and offsets over a
+ * CharSequence. No object is created per token, the current token is held by
+ * {@link #kind()}, {@link #start()} and {@link #end()} until the next call of
+ * {@link #next()}.
+ * 
+ * <p>
+ * The ASCII characters are classified by a lookup table, the keywords are
+ * matched ignoring case without converting the token to a string.
+ * 
+ * <pre>
+ * SQLLexer lexer = new SQLLexer(sql);
+ * for (int kind = lexer.next(); kind != SQLLexer.EOF; kind = lexer.next()) {
+ * 	if (kind == SQLLexer.WORD &amp;&amp; lexer.keyword() == SQLLexer.BEGIN) {
+ * 		...
+ * 	}
+ * }
+ * </pre>
+ * 
+ * @author omer.dogan
+ * 
+ */
+public final class SQLLexer {
+	/** Token kinds **/
+	public static final int EOF = 0;
+	/** A run of white space characters **/
+	public static final int WHITESPACE = 1;
+	/** A java identifier, e.g. a name or a keyword **/
+	public static final int WORD = 2;
+	/** A run of identifier characters starting with a digit **/
+	public static final int NUMBER = 3;
+	/** A colon followed by a java identifier, e.g. :name **/
+	public static final int PARAMETER = 4;
+	/** A quoted string including its quotes, it ends by the same quote **/
+	public static final int STRING = 5;
+	/** A -- comment up to the line break **/
+	public static final int LINE_COMMENT = 6;
+	/** A block comment including its delimiters **/
+	public static final int BLOCK_COMMENT = 7;
+	/** Any other single character **/
+	public static final int SYMBOL = 8;
+
+	/** Keywords **/
+	public static final int NONE = 0;
+	public static final int BEGIN = 1;
+	public static final int END = 2;
+	public static final int CREATE = 3;
+	public static final int DECLARE = 4;
+	public static final int CASE = 5;
+	public static final int IF = 6;
+	public static final int LOOP = 7;
+	public static final int FUNCTION = 8;
+	public static final int PROCEDURE = 9;
+	public static final int PACKAGE = 10;
+	public static final int OR = 11;
+	public static final int REPLACE = 12;
+	public static final int SELECT = 13;
+	public static final int FROM = 14;
+	public static final int WHERE = 15;
+	public static final int AND = 16;
+	public static final int GROUP = 17;
+	public static final int ORDER = 18;
+	public static final int HAVING = 19;
+	public static final int SET = 20;
+	public static final int LEFT = 21;
+	public static final int INNER = 22;
+	public static final int OUTER = 23;
+
+	/** Keyword texts in upper case, indexed by the keyword constants **/
+	private static final String[] WORDS = { null, "BEGIN", "END", "CREATE", "DECLARE", "CASE", "IF", "LOOP",
+			"FUNCTION", "PROCEDURE", "PACKAGE", "OR", "REPLACE", "SELECT", "FROM", "WHERE", "AND", "GROUP", "ORDER",
+			"HAVING", "SET", "LEFT", "INNER", "OUTER" };
+	/** Keyword constants grouped by the keyword length **/
+	private static final int[][] BY_LENGTH;
+
+	/** Character classes **/
+	private static final byte WHITE = 1;
+	private static final byte IDENTIFIER_START = 2;
+	private static final byte IDENTIFIER_PART = 4;
+	/** Classes of the ASCII characters **/
+	private static final byte[] CLASSES = new byte[128];
+
+	static {
+		for (char c = 0; c < CLASSES.length; c++) {
+			CLASSES[c] = (byte) ((Character.isWhitespace(c) ? WHITE : 0)
+					| (Character.isJavaIdentifierStart(c) ? IDENTIFIER_START : 0)
+					| (Character.isJavaIdentifierPart(c) ? IDENTIFIER_PART : 0));
+		}
+
+		int max = 0;
+		for (int i = 1; i < WORDS.length; i++) {
+			max = Math.max(max, WORDS[i].length());
+		}
+		int[] counts = new int[max + 1];
+		for (int i = 1; i < WORDS.length; i++) {
+			counts[WORDS[i].length()]++;
+		}
+		BY_LENGTH = new int[max + 1][];
+		for (int length = 0; length <= max; length++) {
+			BY_LENGTH[length] = new int[counts[length]];
+			counts[length] = 0;
+		}
+		for (int i = 1; i < WORDS.length; i++) {
+			int length = WORDS[i].length();
+			BY_LENGTH[length][counts[length]++] = i;
+		}
+	}
+
+	/** Input **/
+	CharSequence input;
+	/** End of the input **/
+	int limit;
+	/** Kind of the current token **/
+	int kind;
+	/** Start of the current token **/
+	int start;
+	/** End of the current token, exclusive **/
+	int end;
+
+	/**
+	 * 
+	 */
+	public SQLLexer() {
+		super();
+		reset("");
+	}
+
+	/**
+	 * 
+	 * @param input
+	 */
+	public SQLLexer(CharSequence input) {
+		super();
+		reset(input);
+	}
+
+	/**
+	 * 
+	 * @param input
+	 * @return this positioned before the first token of the input
+	 */
+	public SQLLexer reset(CharSequence input) {
+		return reset(input, 0, input.length());
+	}
+
+	/**
+	 * 
+	 * @param input
+	 * @param from
+	 *            start of the lexed range
+	 * @param to
+	 *            end of the lexed range, exclusive
+	 * @return this positioned before the first token of the range
+	 */
+	public SQLLexer reset(CharSequence input, int from, int to) {
+		this.input = input;
+		this.limit = to;
+		this.kind = EOF;
+		this.start = from;
+		this.end = from;
+		return this;
+	}
+
+	/**
+	 * Move to the next token
+	 * 
+	 * @return kind of the token, {@link #EOF} at the end of the input
+	 */
+	public int next() {
+		CharSequence in = input;
+		int i = end;
+		start = i;
+		if (i >= limit) {
+			return kind = EOF;
+		}
+
+		char c = in.charAt(i++);
+		char n = i < limit ? in.charAt(i) : '\0';
+		if (isWhitespace(c)) {
+			while (i < limit && isWhitespace(in.charAt(i))) {
+				i++;
+			}
+			kind = WHITESPACE;
+		} else if (isIdentifierStart(c)) {
+			i = identifier(in, i);
+			kind = WORD;
+		} else if (c >= '0' && c <= '9') {
+			i = identifier(in, i);
+			kind = NUMBER;
+		} else if (c == ':' && i < limit && isIdentifierStart(n)) {
+			i = identifier(in, i + 1);
+			kind = PARAMETER;
+		} else if (c == '\'' || c == '"') {
+			while (i < limit && in.charAt(i) != c) {
+				i++;
+			}
+			i = Math.min(i + 1, limit);
+			kind = STRING;
+		} else if (c == '-' && n == '-') {
+			while (i < limit && in.charAt(i) != '\n') {
+				i++;
+			}
+			kind = LINE_COMMENT;
+		} else if (c == '/' && n == '*') {
+			i += 2;
+			while (i < limit && !(in.charAt(i - 1) == '*' && in.charAt(i) == '/')) {
+				i++;
+			}
+			i = Math.min(i + 1, limit);
+			kind = BLOCK_COMMENT;
+		} else {
+			kind = SYMBOL;
+		}
+		end = i;
+		return kind;
+	}
+
+	/**
+	 * 
+	 * @return end of the identifier characters starting at the given index
+	 */
+	private int identifier(CharSequence in, int i) {
+		while (i < limit && isIdentifierPart(in.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * 
+	 * @return kind of the current token
+	 */
+	public int kind() {
+		return kind;
+	}
+
+	/**
+	 * 
+	 * @return start of the current token
+	 */
+	public int start() {
+		return start;
+	}
+
+	/**
+	 * 
+	 * @return end of the current token, exclusive
+	 */
+	public int end() {
+		return end;
+	}
+
+	/**
+	 * 
+	 * @return first character of the current token
+	 */
+	public char first() {
+		return input.charAt(start);
+	}
+
+	/**
+	 * 
+	 * @return keyword of the current token, {@link #NONE} if it is not a word
+	 *         or not a keyword
+	 */
+	public int keyword() {
+		return kind == WORD ? keyword(input, start, end) : NONE;
+	}
+
+	/**
+	 * 
+	 * @return the keyword between start and end ignoring case, {@link #NONE}
+	 *         if it is not a keyword
+	 */
+	public static int keyword(CharSequence chars, int start, int end) {
+		int length = end - start;
+		if (length <= 0 || length >= BY_LENGTH.length) {
+			return NONE;
+		}
+		int[] candidates = BY_LENGTH[length];
+		for (int i = 0; i < candidates.length; i++) {
+			if (matches(chars, start, end, WORDS[candidates[i]])) {
+				return candidates[i];
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * 
+	 * @return the keyword between start and end ignoring case, {@link #NONE}
+	 *         if it is not a keyword
+	 */
+	public static int keyword(char[] chars, int start, int end) {
+		int length = end - start;
+		if (length <= 0 || length >= BY_LENGTH.length) {
+			return NONE;
+		}
+		int[] candidates = BY_LENGTH[length];
+		search: for (int i = 0; i < candidates.length; i++) {
+			String word = WORDS[candidates[i]];
+			for (int j = 0; j < length; j++) {
+				if (upper(chars[start + j]) != word.charAt(j)) {
+					continue search;
+				}
+			}
+			return candidates[i];
+		}
+		return NONE;
+	}
+
+	/**
+	 * 
+	 * @return if the characters between start and end converted to upper case
+	 *         are equal to the given word
+	 */
+	public static boolean matches(CharSequence chars, int start, int end, String word) {
+		if (end - start != word.length()) {
+			return false;
+		}
+		for (int i = 0; i < word.length(); i++) {
+			if (upper(chars.charAt(start + i)) != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @return upper case of the character, the dotted and dotless i are
+	 *         converted to I
+	 */
+	private static char upper(char c) {
+		if (c < 128) {
+			return c >= 'a' && c <= 'z' ? (char) (c - 32) : c;
+		} else if (c == '\u0130' || c == '\u0131') {
+			return 'I';
+		}
+		return Character.toUpperCase(c);
+	}
+
+	/**
+	 * 
+	 * @return if the characters between start and end form a java identifier
+	 */
+	public static boolean isIdentifier(CharSequence chars, int start, int end) {
+		if (start >= end || !isIdentifierStart(chars.charAt(start))) {
+			return false;
+		}
+		for (int i = start + 1; i < end; i++) {
+			if (!isIdentifierPart(chars.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * @see Character#isWhitespace(char)
+	 */
+	public static boolean isWhitespace(char c) {
+		return c < 128 ? (CLASSES[c] & WHITE) != 0 : Character.isWhitespace(c);
+	}
+
+	/**
+	 * 
+	 * @see Character#isJavaIdentifierStart(char)
+	 */
+	public static boolean isIdentifierStart(char c) {
+		return c < 128 ? (CLASSES[c] & IDENTIFIER_START) != 0 : Character.isJavaIdentifierStart(c);
+	}
+
+	/**
+	 * 
+	 * @see Character#isJavaIdentifierPart(char)
+	 */
+	public static boolean isIdentifierPart(char c) {
+		return c < 128 ? (CLASSES[c] & IDENTIFIER_PART) != 0 : Character.isJavaIdentifierPart(c);
+	}
+}
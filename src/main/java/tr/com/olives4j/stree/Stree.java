@@ -62,12 +62,36 @@ public class Stree extends StreeGroup {
 	}
 
 	/**
-	 * @return new Stree instance which is clone of this instance
+	 * @return new Stree instance which is clone of this instance, the child
+	 *         nodes are shared until they are modified unless they are
+	 *         referenced by the caller
+	 * @see StreeGroup#clone()
 	 */
 	public Stree clone() {
-		Stree stree = new Stree(this.name);
-		stree.append(this.nodes);
-		return stree;
+		if (isExposed()) {
+			return (Stree) copyAll();
+		}
+		return share(new Stree(this.name));
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	protected StreeNode copyAll() {
+		Stree tree = new Stree(this.name);
+		for (int i = 0; i < nodes.size(); i++) {
+			tree.add(nodes.get(i).copyAll());
+		}
+		return tree;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	protected StreeNode copy() {
+		return clone();
 	}
 
 	/**
@@ -98,7 +122,7 @@ public class Stree extends StreeGroup {
 	public Stree concat(Stree stree, String unionType) {
 		Stree clone = stree.clone();
 		append(unionType);
-		append(clone);
+		add(clone);
 		return this;
 	}
 
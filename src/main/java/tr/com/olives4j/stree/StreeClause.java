@@ -21,9 +21,10 @@ package tr.com.olives4j.stree;
  */
 public class StreeClause extends StreeNode {
 	/**
-	 * Holds content
+	 * Holds content, modified only by {@link #content(CharSequence)} so the
+	 * cached outputs of the tree are discarded
 	 */
-	public CharSequence content;
+	CharSequence content;
 
 	/**
 	 * 
@@ -49,6 +50,42 @@ public class StreeClause extends StreeNode {
 		this.content = sqlPart;
 	}
 
+	/**
+	 * Construct a clause referencing a range of the given array, the array is
+	 * not copied so it should not be modified later
+	 * 
+	 * @param source
+	 *            shared characters, e.g. the text of a parsed script
+	 * @param start
+	 *            start of the content in the array
+	 * @param end
+	 *            end of the content in the array, exclusive
+	 */
+	public StreeClause(char[] source, int start, int end) {
+		this(new Slice(source, start, end));
+	}
+
+	/**
+	 * 
+	 * @return content of this clause
+	 */
+	public CharSequence content() {
+		return content;
+	}
+
+	/**
+	 * Set the content of this clause and discard the cached outputs of the
+	 * tree, e.g. the rendered sql strings
+	 * 
+	 * @param content
+	 * @return this
+	 */
+	public StreeClause content(CharSequence content) {
+		this.content = content;
+		invalidate();
+		return this;
+	}
+
 	/**
 	 * 
 	 */
@@ -68,10 +105,13 @@ public class StreeClause extends StreeNode {
 		}
 
 		if (content != null) {
-			if (buffer.length() == 0 || Character.isWhitespace(buffer.charAt(buffer.length() - 1))) {
-				buffer.append(content);
+			if (buffer.length() > 0 && !Character.isWhitespace(buffer.charAt(buffer.length() - 1))) {
+				buffer.append(" ");
+			}
+			if (content instanceof Slice) {
+				((Slice) content).appendTo(buffer);
 			} else {
-				buffer.append(" ").append(content);
+				buffer.append(content);
 			}
 		}
 		return this;
@@ -81,8 +121,7 @@ public class StreeClause extends StreeNode {
 	 * 
 	 */
 	public StreeClause replace(CharSequence target, CharSequence replacement) {
-		content = content.toString().replace(target, replacement);
-		return this;
+		return content(content.toString().replace(target, replacement));
 	}
 
 	/**
@@ -92,4 +131,72 @@ public class StreeClause extends StreeNode {
 	public String toString() {
 		return "StreeClause [" + content + "]";
 	}
-}
\ No newline at end of file
+
+	// Inner classes /////////////////////////////////////////
+
+	/**
+	 * A range of a shared character array used as the content of a clause.
+	 * The clauses of a parsed script reference the script text through slices
+	 * instead of holding their own copies, a sub sequence of a slice is a
+	 * slice of the same array.
+	 */
+	public static final class Slice implements CharSequence {
+		/** Shared characters **/
+		final char[] source;
+		/** Start of this slice in the array **/
+		final int start;
+		/** End of this slice in the array, exclusive **/
+		final int end;
+
+		/**
+		 * 
+		 * @param source
+		 * @param start
+		 * @param end
+		 */
+		public Slice(char[] source, int start, int end) {
+			super();
+			if (start < 0 || end > source.length || start > end) {
+				throw new IndexOutOfBoundsException("Invalid slice " + start + ".." + end + " of " + source.length);
+			}
+			this.source = source;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		public int length() {
+			return end - start;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException("Index " + index + " of " + (end - start));
+			}
+			return source[start + index];
+		}
+
+		@Override
+		public Slice subSequence(int from, int to) {
+			if (from < 0 || to > end - start || from > to) {
+				throw new IndexOutOfBoundsException("Invalid range " + from + ".." + to + " of " + (end - start));
+			}
+			return new Slice(source, start + from, start + to);
+		}
+
+		/**
+		 * Append the characters of this slice without an intermediate copy
+		 * 
+		 * @param buffer
+		 */
+		public void appendTo(StringBuilder buffer) {
+			buffer.append(source, start, end - start);
+		}
+
+		@Override
+		public String toString() {
+			return new String(source, start, end - start);
+		}
+	}
+}
@@ -31,6 +31,11 @@ public class StreeGroup extends StreeNode {
 	 */
 	protected List<StreeNode> nodes;
 
+	/**
+	 * Cached exclusion of this group, null if it must be computed again
+	 */
+	private Boolean excluded;
+
 	/**
 	 * 
 	 */
@@ -44,7 +49,9 @@ public class StreeGroup extends StreeNode {
 	 */
 	public <T extends StreeNode> StreeGroup(List<T> nodes) {
 		this();
-		append(nodes.toArray());
+		for (int i = 0; i < nodes.size(); i++) {
+			add(nodes.get(i));
+		}
 	}
 
 	/**
@@ -66,19 +73,46 @@ public class StreeGroup extends StreeNode {
 	}
 
 	/**
+	 * A group is excluded if any of its child nodes is excluded. The result is
+	 * cached until a descendant notifies a change by {@link #invalidate()} or
+	 * {@link #excludeChanged()}
 	 * 
 	 * @return if this node excluded
 	 */
 	public boolean isExclude() {
-		Iterator<StreeNode> iterator = this.nodes.iterator();
-		while (iterator.hasNext()) {
-			StreeNode next = iterator.next();
-			if (next.isExclude()) {
-				return true;
+		if (excluded == null) {
+			boolean result = false;
+			for (int i = 0; i < nodes.size(); i++) {
+				if (nodes.get(i).isExclude()) {
+					result = true;
+					break;
+				}
 			}
+			excluded = result;
 		}
+		return excluded;
+	}
 
-		return false;
+	/**
+	 * Discard the cached exclusion of this group and its ancestors
+	 */
+	@Override
+	protected void invalidate() {
+		excluded = null;
+		super.invalidate();
+	}
+
+	/**
+	 * Discard the cached exclusion of this group and its ancestors. The
+	 * ancestors of a group without a cached exclusion have no cached exclusion
+	 * either, so the notification stops there
+	 */
+	@Override
+	protected void excludeChanged() {
+		if (excluded != null) {
+			excluded = null;
+			super.excludeChanged();
+		}
 	}
 
 	/**
@@ -88,7 +122,10 @@ public class StreeGroup extends StreeNode {
 	public StreeGroup append(Object... nodes) {
 		for (int i = 0; i < nodes.length; i++) {
 			StreeNode expr = parse(nodes[i]);
-			append(expr);
+			add(expr);
+			if (nodes[i] instanceof StreeNode) {
+				expose();
+			}
 		}
 
 		return this;
@@ -101,8 +138,11 @@ public class StreeGroup extends StreeNode {
 	public StreeGroup append(Iterable<?> nodes) {
 		Iterator<?> iterator = nodes.iterator();
 		while (iterator.hasNext()) {
-			StreeNode expr = parse(iterator.next());
-			append(expr);
+			Object next = iterator.next();
+			add(parse(next));
+			if (next instanceof StreeNode) {
+				expose();
+			}
 		}
 
 		return this;
@@ -113,9 +153,25 @@ public class StreeGroup extends StreeNode {
 	 * @param node
 	 */
 	public StreeGroup append(StreeNode node) {
+		add(node);
+		expose();
+		return this;
+	}
+
+	/**
+	 * Append the given node created by the tree itself, so it is not
+	 * referenced by the caller
+	 * 
+	 * @param node
+	 */
+	protected void add(StreeNode node) {
 		this.nodes.add(node);
 		node.parent(this);
-		return this;
+		node.index = this.nodes.size() - 1;
+		invalidate();
+		if (node.exposed) {
+			expose();
+		}
 	}
 
 	/**
@@ -132,6 +188,9 @@ public class StreeGroup extends StreeNode {
 			expr = new StreeGroup().append((StreeGroup) next);
 		} else if (next == null) {
 			expr = new StreeClause("null");
+		} else if (next instanceof StreeClause.Slice) {
+			// a slice is immutable, it is parsed without a copy
+			expr = parse((CharSequence) next);
 		} else {
 			expr = parse(next.toString());
 		}
@@ -153,10 +212,8 @@ public class StreeGroup extends StreeNode {
 	 */
 	@Override
 	public StreeNode merge(StringBuilder buffer) {
-		for (StreeNode clause : nodes) {
-			if (clause.isExclude()) {
-				return this;
-			}
+		if (isExclude()) {
+			return this;
 		}
 
 		super.merge(buffer);
@@ -176,6 +233,16 @@ public class StreeGroup extends StreeNode {
 		return nodeWalker;
 	}
 
+	/**
+	 * Walk the given group without copying its shared nodes, for reading the
+	 * tree only
+	 * 
+	 * @see StreeIterator
+	 */
+	protected static <T extends StreeNode> StreeIterator<T> walk(StreeGroup group, Predicate<StreeNode> selector) {
+		return new StreeIterator<T>(group, selector, false);
+	}
+
 	/**
 	 * 
 	 * @param selector
@@ -193,17 +260,35 @@ public class StreeGroup extends StreeNode {
 	 */
 	public void setContent(String sql) {
 		this.nodes = new ArrayList<StreeNode>();
+		invalidate();
 		append(sql);
 	}
 
 	/**
+	 * The child nodes shared with a clone of this group are replaced by their
+	 * copies before they are returned
 	 * 
 	 * @return
 	 */
 	public List<StreeNode> getNodes() {
+		for (int i = 0; i < nodes.size(); i++) {
+			own(i);
+		}
+		expose();
 		return nodes;
 	}
 
+	/**
+	 * Return the child nodes of the given group without copying the shared
+	 * ones, for reading the tree only
+	 * 
+	 * @param group
+	 * @return child nodes of the group
+	 */
+	protected static List<StreeNode> children(StreeGroup group) {
+		return group.nodes;
+	}
+
 	/**
 	 * 
 	 * @return
@@ -213,15 +298,143 @@ public class StreeGroup extends StreeNode {
 	}
 
 	/**
+	 * Return the child node in the given index owned by this group. A child
+	 * node shared with another group is replaced by its copy, so the
+	 * modifications on the returned node are not seen by the other group
 	 * 
+	 * @param index
+	 *            index of the child node
+	 * @return child node owned by this group
 	 */
-	public StreeNode clone() {
-		StreeGroup clause = new StreeGroup();
-		for (int i = 0; i < this.nodes.size(); i++) {
-			clause.append(nodes.get(i).clone());
+	protected StreeNode own(int index) {
+		StreeNode node = nodes.get(index);
+		if (!node.shared) {
+			return node;
+		}
+
+		StreeNode copy = node.copy();
+		copy.parent(this);
+		copy.index = index;
+		nodes.set(index, copy);
+		invalidate();
+		replaced(node, copy);
+		return copy;
+	}
+
+	/**
+	 * Notify this group and its ancestors that a shared descendant node is
+	 * replaced by its copy
+	 * 
+	 * @param node
+	 *            shared node
+	 * @param copy
+	 *            copy of the node owned by this tree
+	 */
+	protected void replaced(StreeNode node, StreeNode copy) {
+		if (parent() != null) {
+			parent().replaced(node, copy);
 		}
+	}
+
+	/**
+	 * Return the given descendant node owned by this group. The descendant and
+	 * its ancestors shared with another group are replaced by their copies
+	 * 
+	 * @param node
+	 *            descendant node
+	 * @return the descendant node or its copy, null if the node is not a
+	 *         descendant of this group
+	 */
+	protected StreeNode own(StreeNode node) {
+		StreeNode next = node;
+		while (next != this && next != null && !next.shared) {
+			next = next.parent();
+		}
+		if (next == this) {
+			return node;
+		}
+
+		for (int i = 0; i < nodes.size(); i++) {
+			StreeNode child = nodes.get(i);
+			if (child == node) {
+				return own(i);
+			}
+			if (child instanceof StreeGroup && ((StreeGroup) child).contains(node)) {
+				return ((StreeGroup) own(i)).own(node);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 
+	 * @param node
+	 * @return if the given node is a descendant of this group
+	 */
+	private boolean contains(StreeNode node) {
+		for (int i = 0; i < nodes.size(); i++) {
+			StreeNode child = nodes.get(i);
+			if (child == node || (child instanceof StreeGroup && ((StreeGroup) child).contains(node))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Fill the given group with the child nodes of this group. The child nodes
+	 * are shared by the groups and copied by {@link #own(int)} on the first
+	 * modification
+	 * 
+	 * @param group
+	 *            target group
+	 * @return target group
+	 */
+	protected <T extends StreeGroup> T share(T group) {
+		group.nodes = new ArrayList<StreeNode>(nodes);
+		for (int i = 0; i < nodes.size(); i++) {
+			StreeNode node = nodes.get(i);
+			if (!node.shared) {
+				node.shared = true;
+			}
+		}
+		return group;
+	}
+
+	/**
+	 * 
+	 */
+	@Override
+	protected StreeNode copy() {
+		return share((StreeGroup) super.copy());
+	}
 
-		return clause;
+	/**
+	 * 
+	 */
+	@Override
+	protected StreeNode copyAll() {
+		StreeGroup group = (StreeGroup) super.copy();
+		group.nodes = new ArrayList<StreeNode>(nodes.size());
+		for (int i = 0; i < nodes.size(); i++) {
+			group.add(nodes.get(i).copyAll());
+		}
+		return group;
+	}
+
+	/**
+	 * Return a copy of this group sharing the child nodes with this group. If
+	 * the nodes of the tree are referenced by the caller, e.g. they are
+	 * appended by the caller or returned by {@link #getNodes()}, all nodes are
+	 * copied instead
+	 * 
+	 * @see #own(int)
+	 */
+	public StreeNode clone() {
+		if (isExposed()) {
+			return copyAll();
+		}
+		return share(new StreeGroup());
 	}
 
 	/**
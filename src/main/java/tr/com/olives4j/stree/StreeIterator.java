@@ -16,38 +16,63 @@
  *******************************************************************************/
 package tr.com.olives4j.stree;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import tr.com.olives4j.sql.util.Functionals.Predicate;
 
 /**
- * An Iterator walks all nodes for the given {@link StreeGroup}
+ * An Iterator walks all nodes for the given {@link StreeGroup}. The returned
+ * nodes and the groups walked into are owned by the tree, a node shared with a
+ * clone of the tree is replaced by its copy first.
  * 
  * @author omer.dogan
  *
  * @param <T>
  */
 public final class StreeIterator<T extends StreeNode> implements Iterator<T> {
-	/** Holds the current position on the current parent node **/
-	int index = 0;
 	/** Holds root node for iteration **/
 	StreeNode root;
-	/** Holds the current parent node in the tree **/
-	StreeNode currentParent;
 	/** Filter to select specific nodes **/
 	Predicate<StreeNode> selector;
-	/****/
-	boolean isStreeGroup;
+	/** Holds the groups on the path from the root to the current position **/
+	StreeGroup[] groups;
+	/** Holds the position of the next child for each group on the path **/
+	int[] indexes;
+	/** Index of the current group on the path, -1 if the walk is completed **/
+	int depth;
+	/** Node found by {@link #hasNext()} and not returned yet **/
+	StreeNode lookahead;
+	/** Holds if the shared nodes are copied before they are returned **/
+	final boolean owning;
 
 	/**
 	 * 
 	 */
 	public StreeIterator(StreeNode parent, Predicate<StreeNode> selector) {
+		this(parent, selector, true);
+	}
+
+	/**
+	 * 
+	 * @param owning
+	 *            false to return the shared nodes as they are, for reading the
+	 *            tree only
+	 */
+	StreeIterator(StreeNode parent, Predicate<StreeNode> selector, boolean owning) {
 		super();
+		this.owning = owning;
 		this.root = parent;
-		this.currentParent = parent;
 		this.selector = selector;
-		this.isStreeGroup = parent instanceof StreeGroup;
+		this.groups = new StreeGroup[8];
+		this.indexes = new int[8];
+		if (parent instanceof StreeGroup) {
+			this.groups[0] = (StreeGroup) parent;
+			this.depth = 0;
+		} else {
+			this.depth = -1;
+		}
 	}
 
 	/**
@@ -56,7 +81,10 @@ public final class StreeIterator<T extends StreeNode> implements Iterator<T> {
 	 */
 	@Override
 	public boolean hasNext() {
-		return isStreeGroup && alter((StreeGroup) currentParent, this.index) != null;
+		if (lookahead == null) {
+			lookahead = advance();
+		}
+		return lookahead != null;
 	}
 
 	/**
@@ -64,44 +92,56 @@ public final class StreeIterator<T extends StreeNode> implements Iterator<T> {
 	 */
 	@SuppressWarnings("unchecked")
 	public T next() {
-		Path path = alter((StreeGroup) currentParent, this.index);
-		this.index = path.index;
-		this.currentParent = path.parent;
-		StreeNode next = ((StreeGroup) currentParent).getNodes().get(index);
-		this.index++;
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		StreeNode next = lookahead;
+		lookahead = null;
+		if (owning) {
+			next.expose();
+		}
 		return (T) next;
 	}
 
 	/**
+	 * Walk to the next selected node in depth first order
 	 * 
-	 * @return
+	 * @return the next selected node or null if there is no more
 	 */
-	private Path alter(StreeGroup parent, int index) {
-		Path path = new Path(parent, index);
-		int size = parent.size();
-		for (int i = index; i < size; i++) {
-			path.index = i;
-			StreeNode next = parent.getNodes().get(i);
+	private StreeNode advance() {
+		while (depth >= 0) {
+			StreeGroup group = groups[depth];
+			int index = indexes[depth];
+			if (index >= group.size()) {
+				groups[depth] = null;
+				depth--;
+				continue;
+			}
+			indexes[depth] = index + 1;
 
+			StreeNode next = group.nodes.get(index);
 			if (next instanceof StreeGroup) {
-				Path path2 = alter((StreeGroup) next, 0);
-				if (path2 != null) {
-					return path2;
-				}
-			} else if (selector == null) {
-				return path;
-			} else if (selector.test(next)) {
-				return path;
+				push((StreeGroup) (owning ? group.own(index) : next));
+			} else if (selector == null || selector.test(next)) {
+				return owning ? group.own(index) : next;
 			}
 		}
+		return null;
+	}
 
-		if (parent != root) {
-			int currentIndex = parent.parent().getNodes().indexOf(parent);
-			path = alter(parent.parent(), currentIndex + 1);
-			return path;
+	/**
+	 * 
+	 * @param group
+	 *            group to walk into
+	 */
+	private void push(StreeGroup group) {
+		depth++;
+		if (depth == groups.length) {
+			groups = Arrays.copyOf(groups, depth * 2);
+			indexes = Arrays.copyOf(indexes, depth * 2);
 		}
-
-		return null;
+		groups[depth] = group;
+		indexes[depth] = 0;
 	}
 
 	/**
@@ -124,20 +164,6 @@ public final class StreeIterator<T extends StreeNode> implements Iterator<T> {
 		public abstract void apply(T t);
 	}
 
-	/**
-	 * 
-	 */
-	class Path {
-		StreeGroup parent;
-		int index;
-
-		public Path(StreeGroup parent, int index) {
-			super();
-			this.parent = parent;
-			this.index = index;
-		}
-	}
-
 	@Override
 	public void remove() {
 		throw new UnsupportedOperationException("remove");
@@ -17,7 +17,6 @@
 package tr.com.olives4j.stree;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -61,26 +60,10 @@ public final class StreeMark extends StreeNode {
 			return this;
 		}
 
-		Iterator<StreeNode> nodes = null;
-		if (this.parent() != null) {
-			nodes = ((StreeGroup) this.parent()).nodes.iterator();
-		} else {
-			return this;
-		}
-
-		StreeNode prev = null;
-
-		while (nodes.hasNext()) {
-			StreeNode next = nodes.next();
-			if (!(prev instanceof StreeMark)) {
-				prev = next;
-				continue;
-			}
-			if (prev != null && prev == this) {
-				this.markedNodes.add(next);
-				processMarkedNode(next);
-			}
-			prev = next;
+		StreeNode next = next();
+		if (next != null) {
+			this.markedNodes.add(next);
+			processMarkedNode(next);
 		}
 		return this;
 	}
@@ -16,11 +16,13 @@
  *******************************************************************************/
 package tr.com.olives4j.stree;
 
+import java.util.List;
+
 /**
  * Defines the requirements for an object that can be used as a tree node in a
  * {@code Stree}.
  */
-public abstract class StreeNode {
+public abstract class StreeNode implements Cloneable {
 	/**
 	 * Holds parent node
 	 */
@@ -29,6 +31,22 @@ public abstract class StreeNode {
 	 * Flag indicated this node excluded
 	 */
 	protected boolean exclude;
+	/**
+	 * Flag indicates this node is referenced by the groups of more than one
+	 * tree, so it is copied before it is modified
+	 */
+	boolean shared;
+	/**
+	 * Flag indicates a node of this tree may be referenced by the caller, so
+	 * the clones of this tree copy their nodes instead of sharing them. Held
+	 * by the root node of the tree
+	 */
+	boolean exposed;
+	/**
+	 * Position of this node in the child list of its parent, verified before
+	 * it is used since the list may be modified directly
+	 */
+	int index;
 
 	/**
 	 * Constructor
@@ -67,11 +85,76 @@ public abstract class StreeNode {
 	public StreeNode root() {
 		StreeNode next = this;
 		while (next.parent != null) {
-			next = this.parent;
+			next = next.parent;
 		}
 		return next;
 	}
 
+	/**
+	 * 
+	 * @return the previous sibling of this node, null if this node is the
+	 *         first child or it has no parent
+	 */
+	public StreeNode previous() {
+		StreeNode previous = previousOf(this);
+		return previous != null ? previous.expose() : null;
+	}
+
+	/**
+	 * Return the previous sibling of the given node without marking the tree
+	 * as referenced by the caller, for the nodes modifying their own tree
+	 * 
+	 * @return the previous sibling owned by the parent of the node, null if the
+	 *         node is the first child or it has no parent
+	 */
+	protected static StreeNode previousOf(StreeNode node) {
+		int index = node.index();
+		return index > 0 ? node.parent.own(index - 1) : null;
+	}
+
+	/**
+	 * 
+	 * @return the last child of the given group owned by the group, null if
+	 *         the group is empty
+	 * @see #previousOf(StreeNode)
+	 */
+	protected static StreeNode lastOf(StreeGroup group) {
+		return group.nodes.isEmpty() ? null : group.own(group.nodes.size() - 1);
+	}
+
+	/**
+	 * 
+	 * @return the next sibling of this node, null if this node is the last
+	 *         child or it has no parent
+	 */
+	public StreeNode next() {
+		int index = index();
+		return index >= 0 && index + 1 < parent.nodes.size() ? parent.own(index + 1).expose() : null;
+	}
+
+	/**
+	 * 
+	 * @return position of this node in the child list of its parent, -1 if it
+	 *         has no parent or it is not in the list
+	 */
+	int index() {
+		if (parent == null) {
+			return -1;
+		}
+
+		List<StreeNode> nodes = parent.nodes;
+		if (index < nodes.size() && nodes.get(index) == this) {
+			return index;
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			if (nodes.get(i) == this) {
+				index = i;
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	/**
 	 * 
 	 * @return parent node
@@ -106,10 +189,53 @@ public abstract class StreeNode {
 	 * @return
 	 */
 	public StreeNode exclude(boolean exclude) {
-		this.exclude = exclude;
+		if (this.exclude != exclude) {
+			this.exclude = exclude;
+			invalidate();
+		}
 		return this;
 	}
 
+	/**
+	 * Notify the ancestors of this node that the output of the tree has
+	 * changed, so any cached output must be discarded
+	 */
+	protected void invalidate() {
+		if (parent != null) {
+			parent.invalidate();
+		}
+	}
+
+	/**
+	 * Mark the tree of this node as referenced by the caller. Called for the
+	 * nodes handed out by the tree methods, so a later clone of the tree does
+	 * not share the nodes the caller may modify
+	 * 
+	 * @return this
+	 */
+	protected StreeNode expose() {
+		root().exposed = true;
+		return this;
+	}
+
+	/**
+	 * 
+	 * @return if a node of the tree of this node is referenced by the caller
+	 */
+	protected boolean isExposed() {
+		return root().exposed;
+	}
+
+	/**
+	 * Notify the ancestors of this node that its exclusion may have changed,
+	 * so their cached exclusion must be computed again
+	 */
+	protected void excludeChanged() {
+		if (parent != null) {
+			parent.excludeChanged();
+		}
+	}
+
 	// Object implementation //////////////////////////////
 	/**
 	 * Return a copy of this node
@@ -122,6 +248,43 @@ public abstract class StreeNode {
 		}
 	}
 
+	/**
+	 * Return a shallow copy of this node which is not attached to any group.
+	 * Used to replace a shared node in a group before it is modified
+	 * 
+	 * @see StreeGroup#own(int)
+	 */
+	protected StreeNode copy() {
+		try {
+			StreeNode copy = (StreeNode) super.clone();
+			copy.parent = null;
+			copy.shared = false;
+			copy.exposed = false;
+			return copy;
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Return a copy of this node sharing no node with this node. Used to copy
+	 * a tree whose nodes may be referenced by the caller
+	 * 
+	 * @see #isExposed()
+	 */
+	protected StreeNode copyAll() {
+		return copy();
+	}
+
+	/**
+	 * 
+	 * @return a copy of the given node sharing no node with it
+	 * @see #copyAll()
+	 */
+	protected static StreeNode copyAll(StreeNode node) {
+		return node.copyAll();
+	}
+
 	/**
 	 * 
 	 */
@@ -18,16 +18,23 @@ package tr.com.olives4j.sql.tests;
 
 import static tr.com.olives4j.sql.SQL.$;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.ConsoleAppender;
@@ -37,10 +44,19 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import tr.com.olives4j.sql.SQL;
+import tr.com.olives4j.sql.SQLBatch;
 import tr.com.olives4j.sql.SQLBind;
+import tr.com.olives4j.sql.SQLBindNode;
 import tr.com.olives4j.sql.SQLBindings;
+import tr.com.olives4j.sql.SQLDialect;
+import tr.com.olives4j.sql.SQLTemplate;
+import tr.com.olives4j.sql.util.SQLFormatter;
+import tr.com.olives4j.stree.StreeClause;
+import tr.com.olives4j.stree.StreeGroup;
+import tr.com.olives4j.stree.StreeIterator;
 import tr.com.olives4j.stree.StreeMark;
 import tr.com.olives4j.stree.StreeNode;
+import tr.com.olives4j.stree.StreeNodeMatcher;
 
 /**
  * 
@@ -94,6 +110,262 @@ public class SQLBuilderTests extends TestBase {
 		
 	}
 
+	/**
+	 * @throws SQLException
+	 * 
+	 */
+	@Test
+	public void testBatch() throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:batch", "sa", "");
+		connection.createStatement().execute("create table batch_customer(id int, first_name varchar(32))");
+
+		List<Object> rows = new ArrayList<Object>();
+		for (int i = 0; i < 25; i++) {
+			rows.add(new Object[] { i, "name_" + i });
+		}
+
+		SQL sql = SQL.of("insert into batch_customer(id, first_name) values(:id, :first_name)");
+		SQLBatch.Result result = new SQLBatch(sql).size(10).execute(connection, rows);
+		logger.debug(result);
+
+		Assert.assertEquals(25, result.rows());
+		Assert.assertEquals(25, result.bound());
+		Assert.assertEquals(3, result.batches());
+		Assert.assertEquals(5, result.size(2));
+		Assert.assertEquals(25, result.updated());
+
+		ResultSet rs = connection.createStatement().executeQuery("select count(*) from batch_customer");
+		rs.next();
+		Assert.assertEquals(25, rs.getInt(1));
+		connection.close();
+	}
+
+	/**
+	 * @throws SQLException
+	 * 
+	 */
+	@Test
+	public void testBatchFailure() throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:batchfailure", "sa", "");
+		connection.createStatement().execute("create table failed_customer(id int, first_name varchar(32))");
+
+		List<Object> rows = new ArrayList<Object>();
+		for (int i = 0; i < 25; i++) {
+			rows.add(new Object[] { i, "name_" + i });
+		}
+		rows.set(23, new Object[] { 23, "name_23", "unknown" });
+
+		SQL sql = SQL.of("insert into failed_customer(id, first_name) values(:id, :first_name)");
+		try {
+			new SQLBatch(sql).size(10).execute(connection, rows);
+			Assert.fail("row with an unknown binding accepted");
+		} catch (SQLBatch.BatchException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().endsWith("row 23"));
+			Assert.assertEquals(20, e.result().rows());
+			Assert.assertEquals(23, e.result().bound());
+			Assert.assertEquals(2, e.result().batches());
+		}
+
+		ResultSet rs = connection.createStatement().executeQuery("select count(*) from failed_customer");
+		rs.next();
+		Assert.assertEquals(20, rs.getInt(1));
+		connection.close();
+	}
+
+	/**
+	 * @throws SQLException
+	 * 
+	 */
+	@Test
+	public void testBatchSparseRows() throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:batchsparse", "sa", "");
+		connection.createStatement().execute("create table sparse_customer(id int, first_name varchar(32))");
+
+		Map<String, Object> first = new HashMap<String, Object>();
+		first.put("id", 1);
+		first.put("first_name", "first");
+		Map<String, Object> second = new HashMap<String, Object>();
+		second.put("id", 2);
+		List<Object> rows = new ArrayList<Object>();
+		rows.add(first);
+		rows.add(second);
+		rows.add(new Object[] { 3, "third" });
+		rows.add(new Object[] { 4 });
+
+		SQL sql = SQL.of("insert into sparse_customer(id, first_name) values(:id, :first_name)");
+		sql.bindings().bind("id", 0);
+		SQLBatch.Result result = new SQLBatch(sql).execute(connection, rows);
+		Assert.assertEquals(4, result.rows());
+		Assert.assertEquals(0, sql.bindings().get("id").value());
+
+		ResultSet rs = connection.createStatement()
+				.executeQuery("select id, first_name from sparse_customer order by id");
+		String[] names = { "first", null, "third", null };
+		for (int i = 0; i < names.length; i++) {
+			Assert.assertTrue(rs.next());
+			Assert.assertEquals(i + 1, rs.getInt(1));
+			Assert.assertEquals(names[i], rs.getString(2));
+		}
+		Assert.assertFalse(rs.next());
+		connection.close();
+	}
+
+	/**
+	 * @throws SQLException
+	 * 
+	 */
+	@Test
+	public void testBindingNodeTypedSetters() throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:setters", "sa", "");
+		connection.createStatement()
+				.execute("create table typed_values(id bigint, name varchar(32), amount decimal(10,2), created timestamp)");
+
+		SQL sql = SQL.of("insert into typed_values(id, name, amount, created) values(:id, :name, :amount, :created)");
+		sql.bindings().get("amount").jdbcType(Types.DECIMAL);
+		PreparedStatement pstmt = connection.prepareStatement(sql.toString());
+
+		Date created = new Date();
+		SQLBindings bindings = sql.bindings();
+		bindings.bind("id", 1L);
+		bindings.bind("name", "first");
+		bindings.bind("amount", null);
+		bindings.bind("created", created);
+		bindings.apply(pstmt);
+		pstmt.executeUpdate();
+
+		bindings.bind("id", 2L);
+		bindings.bind("name", null);
+		bindings.bind("amount", new BigDecimal("1.50"));
+		bindings.bind("created", null);
+		bindings.apply(pstmt);
+		pstmt.executeUpdate();
+
+		ResultSet rs = connection.createStatement().executeQuery("select * from typed_values order by id");
+		Assert.assertTrue(rs.next());
+		Assert.assertEquals("first", rs.getString("name"));
+		Assert.assertNull(rs.getBigDecimal("amount"));
+		Assert.assertEquals(created.getTime(), rs.getTimestamp("created").getTime());
+		Assert.assertTrue(rs.next());
+		Assert.assertNull(rs.getString("name"));
+		Assert.assertEquals(new BigDecimal("1.50"), rs.getBigDecimal("amount"));
+		Assert.assertNull(rs.getTimestamp("created"));
+
+		// the slots of a template whose first values are null
+		SQLTemplate template = SQL
+				.of("insert into typed_values(id, name, amount, created) values(:id, :name, :amount, :created)")
+				.compile();
+		pstmt = connection.prepareStatement(template.context().render());
+		template.context().bind("id", 3L).apply(pstmt);
+		pstmt.executeUpdate();
+		template.context().bind("id", 4L).bind("name", "fourth").bind("created", created).apply(pstmt);
+		pstmt.executeUpdate();
+		template.context().bind("id", 5L).apply(pstmt);
+		pstmt.executeUpdate();
+
+		rs = connection.createStatement().executeQuery("select * from typed_values where id > 2 order by id");
+		Assert.assertTrue(rs.next());
+		Assert.assertNull(rs.getString("name"));
+		Assert.assertNull(rs.getTimestamp("created"));
+		Assert.assertTrue(rs.next());
+		Assert.assertEquals("fourth", rs.getString("name"));
+		Assert.assertEquals(created.getTime(), rs.getTimestamp("created").getTime());
+		Assert.assertTrue(rs.next());
+		Assert.assertNull(rs.getString("name"));
+		Assert.assertNull(rs.getBigDecimal("amount"));
+		Assert.assertFalse(rs.next());
+		connection.close();
+	}
+
+	/**
+	 * @throws SQLException
+	 * 
+	 */
+	@Test
+	public void testBindingNodeBucketed() throws SQLException {
+		SQL sql = SQL.of("select * from INFORMATION_SCHEMA.TABLES where TABLE_NAME in ",
+				((SQLBindNode) $("USERS", "ROLES", "SESSIONS")).bucketed());
+		debugQuery(sql, 1);
+		Assert.assertEquals(4, countChar(sql.toString(), '?'));
+		// the padded placeholders are formatted with the last value
+		String formatted = sql.format().toString();
+		Assert.assertEquals(2, formatted.split("SESSIONS", -1).length - 1);
+		Assert.assertEquals(formatted, sql.formatLazily().toString());
+
+		sql.bindings().bind(0, Arrays.asList("USERS", "ROLES", "SESSIONS", "RIGHTS", "TABLES"));
+		Assert.assertEquals(8, countChar(sql.toString(), '?'));
+
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:bucketed", "sa", "");
+		PreparedStatement pstmt = connection.prepareStatement(sql.toString());
+		sql.bindings().apply(pstmt);
+		ResultSet rs = pstmt.executeQuery();
+		int count = 0;
+		while (rs.next()) {
+			count++;
+		}
+		Assert.assertEquals(5, count);
+		connection.close();
+
+		((SQLBindNode) sql.bindings().get(0)).bucketed(10, 50);
+		sql.bindings().bind(0, Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12));
+		Assert.assertEquals(50, countChar(sql.toString(), '?'));
+		sql.bindings().bind(0, Arrays.asList(1, 2, 3));
+		Assert.assertEquals(10, countChar(sql.toString(), '?'));
+	}
+
+	/**
+	 * @throws SQLException
+	 * 
+	 */
+	@Test
+	public void testBindingNodeArray() throws SQLException {
+		List<String> names = new ArrayList<String>(Arrays.asList("USERS", "ROLES", "SESSIONS", "RIGHTS", "TABLES"));
+		for (int i = 0; i < 20; i++) {
+			names.add("MISSING_" + i);
+		}
+
+		SQL sql = SQL.of("select * from INFORMATION_SCHEMA.TABLES where TABLE_NAME in ",
+				((SQLBindNode) $(names)).arrays(SQLDialect.H2, 10));
+		debugQuery(sql, 1);
+		Assert.assertEquals(1, countChar(sql.toString(), '?'));
+		// the array parameter is formatted as a single value
+		Assert.assertEquals(1, sql.bindings().get(0).extract().size());
+		String formatted = sql.format().toString();
+		Assert.assertTrue(formatted, formatted.contains(names.toString()));
+		Assert.assertEquals(formatted, sql.formatLazily().toString());
+
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:arrays", "sa", "");
+		PreparedStatement pstmt = connection.prepareStatement(sql.toString());
+		sql.bindings().apply(pstmt);
+		ResultSet rs = pstmt.executeQuery();
+		int count = 0;
+		while (rs.next()) {
+			count++;
+		}
+		Assert.assertEquals(5, count);
+		connection.close();
+
+		sql.bindings().bind(0, names.subList(0, 5));
+		Assert.assertEquals(5, countChar(sql.toString(), '?'));
+
+		List<String> empty = new ArrayList<String>();
+		SQL plain = SQL.of("select * from t where name in ", $(empty));
+		SQL array = SQL.of("select * from t where name in ", ((SQLBindNode) $(empty)).arrays(SQLDialect.H2, 0));
+		Assert.assertEquals(plain.toString(), array.toString());
+
+		try {
+			new SQLBindNode().arrays(SQLDialect.H2, -1);
+			Assert.fail("negative threshold accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new SQLBindNode().arrays(null, 10);
+			Assert.fail("null dialect accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
 	/**
 	 * 
 	 */
@@ -127,6 +399,26 @@ public class SQLBuilderTests extends TestBase {
 				defaultValue = Arrays.asList(1, 2, 3), value = null);
 	}
 
+	/**
+	 * 
+	 */
+	@Test
+	public void testBindingNodeByName() {
+		SQL sql = SQL.of("select * from customer where store_id = :id or address_id = :id or city_id = :id",
+				"and active = :active");
+		SQLBind set = sql.bindings().bind("id", 7);
+		debugQuery(sql, 1);
+
+		Assert.assertSame(set, sql.bindings().get("id"));
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals(7, sql.bindings().get(i).value());
+		}
+
+		sql.bindings().get("active").name("enabled");
+		sql.bindings().bind("enabled", true);
+		Assert.assertEquals(true, sql.bindings().get(3).value());
+	}
+
 	/**
 	 * 
 	 */
@@ -229,6 +521,22 @@ public class SQLBuilderTests extends TestBase {
 		checkBind(sql, "enddate", numofValues = 1, optional = false, excluded = false, excludedClauseIndex = null,
 				defaultValue = null, foo.enddate);
 
+		Foo other = new Foo("2", "other_user", false, new Date(), new Date());
+		sql.bindings().map(other, SQLBind.BEANMAPPER);
+		checkBind(sql, "store_id", numofValues = 1, optional = false, excluded = false, excludedClauseIndex = null,
+				defaultValue = null, value = other.store_id);
+
+		// a clone shares the mapping plans until its bindings change
+		SQL clone = sql.clone();
+		clone.bindings().map(foo, SQLBind.BEANMAPPER);
+		Assert.assertEquals(foo.first_name, clone.bindings().get("first_name").value());
+		Iterator<SQLBindNode> binds = clone.bindings().iterator();
+		binds.next();
+		binds.next().name("store_id");
+		clone.bindings().map(other, SQLBind.BEANMAPPER);
+		Assert.assertEquals(other.store_id, clone.bindings().get(1).value());
+		sql.bindings().map(foo, SQLBind.BEANMAPPER);
+		Assert.assertEquals(foo.first_name, sql.bindings().get(1).value());
 	}
 
 	/**
@@ -264,6 +572,179 @@ public class SQLBuilderTests extends TestBase {
 
 	}
 
+	/**
+	 * 
+	 */
+	@Test
+	public void testExcludeCache() {
+		StreeGroup inner = new StreeGroup();
+		inner.append("and store_id = ", new SQLBindNode().name("store_id"));
+		StreeGroup outer = new StreeGroup();
+		outer.append("and (1=1", inner, ")");
+		SQL sql = SQL.of("select * from customer where 1=1", outer);
+
+		sql.bindings().bind("store_id", null).optional();
+		Assert.assertTrue(outer.isExclude());
+		Assert.assertEquals(0, countChar(sql.toString(), '?'));
+
+		sql.bindings().bind("store_id", 1);
+		Assert.assertFalse(inner.isExclude());
+		Assert.assertFalse(outer.isExclude());
+		Assert.assertEquals(1, countChar(sql.toString(), '?'));
+
+		inner.getNodes().get(0).exclude(true);
+		Assert.assertTrue(outer.isExclude());
+		Assert.assertEquals(0, countChar(sql.toString(), '?'));
+
+		inner.getNodes().get(0).exclude(false);
+		sql.bindings().bind("store_id", null);
+		Assert.assertTrue(outer.isExclude());
+		sql.bindings().get("store_id").required();
+		Assert.assertFalse(outer.isExclude());
+		Assert.assertEquals(1, countChar(sql.toString(), '?'));
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testCloneSharing() throws Exception {
+		SQL sql = SQL.of("select * from customer where 1=1", //
+				" and store_id 	= :store_id", //
+				" and active    = :active ", //
+				" and first_name in (:names)");
+		sql.bindings().bind("store_id", 1);
+		sql.bindings().bind("active", true);
+		sql.bindings().bind("names", Arrays.asList("a", "b"));
+		String text = sql.toString();
+
+		SQL clone = sql.clone();
+		Assert.assertEquals(text, clone.toString());
+
+		clone.bindings().bind("store_id", 2);
+		clone.bindings().bind("active", null).optional();
+		clone.bindings().bind("names", Arrays.asList("c"));
+
+		Assert.assertNotSame(sql.getNodes().get(0), clone.getNodes().get(0));
+		Assert.assertEquals(text, sql.toString());
+		Assert.assertEquals(1, sql.bindings().get(0).value());
+		Assert.assertEquals(2, clone.bindings().get(0).value());
+		Assert.assertFalse(clone.toString().contains("active"));
+		Assert.assertEquals(4, countChar(text, '?'));
+		Assert.assertEquals(2, countChar(clone.toString(), '?'));
+
+		sql.bindings().bind("store_id", 3);
+		Assert.assertEquals(2, clone.bindings().get(0).value());
+		Assert.assertEquals(text, sql.toString());
+
+		SQL copy = clone.clone();
+		copy.bindings().bind("active", false).required();
+		Assert.assertTrue(copy.toString().contains("active"));
+		Assert.assertFalse(clone.toString().contains("active"));
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testCloneTreeEdits() throws Exception {
+		SQL sql = SQL.of("select * from customer where 1=1", " and active = 1", //
+				" and store_id = ", $(1).name("store_id"));
+		String text = sql.toString();
+
+		SQL clone = sql.clone();
+		Iterator<SQLBindNode> binds = clone.iterator(new StreeNodeMatcher<SQLBindNode>(SQLBindNode.class, false));
+		binds.next().value(99);
+		Assert.assertEquals(99, clone.bindings().get(0).value());
+		Assert.assertEquals(1, sql.bindings().get(0).value());
+
+		clone = sql.clone();
+		clone.getNodes().get(1).exclude(true);
+		Assert.assertEquals(text, sql.toString());
+		Assert.assertFalse(clone.toString().contains("active"));
+
+		// a node held before the clone is not shared with the clone
+		SQLBindNode bind = sql.bindings().iterator().next();
+		clone = sql.clone();
+		bind.value(2);
+		Assert.assertEquals(2, sql.bindings().get(0).value());
+		Assert.assertEquals(1, clone.bindings().get(0).value());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testSiblings() {
+		StreeGroup root = new StreeGroup();
+		StreeGroup group = root;
+		for (int i = 0; i < 100; i++) {
+			StreeGroup child = new StreeGroup();
+			group.append("c" + i, child);
+			group = child;
+		}
+		SQLBindNode bind = new SQLBindNode().name("p");
+		group.append("and p = ", bind);
+		Assert.assertSame(root, bind.root());
+
+		StreeNode clause = group.getNodes().get(0);
+		Assert.assertSame(clause, bind.previous());
+		Assert.assertSame(bind, clause.next());
+		Assert.assertNull(clause.previous());
+		Assert.assertNull(bind.next());
+		Assert.assertNull(root.previous());
+
+		// the positions are verified after a direct modification of the list
+		StreeNode first = new StreeGroup().append("1=1").getNodes().get(0);
+		group.getNodes().add(0, first);
+		first.parent(group);
+		Assert.assertSame(clause, bind.previous());
+		Assert.assertSame(first, clause.previous());
+
+		StreeGroup marked = new StreeGroup();
+		StreeMark mark = StreeMark.create("active");
+		marked.append("select * from customer where 1=1", mark, "and active = 1", "and deleted = 0");
+		mark.exclude(true);
+		mark.process();
+		Assert.assertEquals(1, mark.getMarkedNodes().size());
+		Assert.assertTrue(marked.getNodes().get(2).isExclude());
+		Assert.assertFalse(marked.getNodes().get(3).isExclude());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testIterator() {
+		StreeGroup root = new StreeGroup();
+		StreeGroup group = root;
+		for (int i = 0; i < 1000; i++) {
+			group.append("and c" + i + " = ");
+			group.append(new SQLBindNode().name("p" + i));
+			if (i % 10 == 9) {
+				StreeGroup child = new StreeGroup();
+				group.append(child);
+				group = child;
+			}
+		}
+
+		StreeIterator<SQLBindNode> binds = root.iterator(StreeNodeMatcher.of(SQLBindNode.class, null));
+		int count = 0;
+		while (binds.hasNext()) {
+			Assert.assertTrue(binds.hasNext());
+			Assert.assertEquals("p" + count, binds.next().name);
+			count++;
+		}
+		Assert.assertEquals(1000, count);
+
+		try {
+			binds.next();
+			Assert.fail("Iterator should be exhausted");
+		} catch (NoSuchElementException e) {
+			// expected
+		}
+	}
+
 	/**
 	 * 
 	 */
@@ -311,6 +792,62 @@ public class SQLBuilderTests extends TestBase {
 		logger.debug(lines(sql.bindings().iterator()));
 	}
 
+	/**
+	 * 
+	 */
+	@Test
+	public void testFormatter() {
+		String sql = "select a.id, b.name from a inner join b on b.id = a.id where a.x = ? and a.y in "
+				+ "(select y from c where c.z = ?) and a.s = 'and where' order by a.id";
+		String formatted = SQLFormatter.INSTANCE.format(sql, 4, Arrays.asList(1, "v\nw")).toString();
+
+		Assert.assertEquals("    select a.id, b.name \n    from a \n    inner join b on b.id = a.id \n"
+				+ "    where a.x = ? /* 1*/? \n        and a.y in (select y \n                        from c \n"
+				+ "                        where c.z = ? /* v*/?) \n        and a.s = 'and \n    where' \n"
+				+ "    order by a.id", formatted);
+
+		String upper = "SELECT a FROM t WHERE x = 1 AND y = 2";
+		Assert.assertEquals(upper, SQLFormatter.INSTANCE.format(upper).toString());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testParseComments() {
+		SQL sql = SQL.of("select * from t -- filter by :skipped\n where a = :a /* :b */ and c = ':c'");
+		Assert.assertEquals(1, sql.bindings().size());
+		Assert.assertEquals("a", sql.bindings().iterator().next().name);
+		Assert.assertTrue(sql.toString().startsWith("select * from t -- filter by :skipped\n where a = "));
+		Assert.assertTrue(sql.toString().endsWith(" /* :b */ and c = ':c'"));
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testFormatLazily() {
+		SQL sql = SQL.of("select * from customer where store_id = :store_id and customer_id in :ids");
+		sql.bindings().bind("store_id", 1);
+		sql.bindings().bind("ids", Arrays.asList(1, 2, 3));
+
+		String formatted = sql.format().toString();
+		CharSequence lazy = sql.formatLazily();
+		sql.bindings().bind("store_id", 2);
+
+		Assert.assertEquals(formatted, lazy.toString());
+		Assert.assertNotEquals(formatted, sql.format().toString());
+
+		List<Integer> ids = new ArrayList<Integer>();
+		for (int i = 0; i < 10000; i++) {
+			ids.add(i);
+		}
+		sql.bindings().bind("ids", ids);
+		String truncated = sql.formatLazily(200).toString();
+		Assert.assertEquals(200 + " ... (truncated at 200 characters)".length(), truncated.length());
+		Assert.assertTrue(sql.format().toString().startsWith(truncated.substring(0, 200)));
+	}
+
 	/**
 	 * 
 	 */
@@ -327,6 +864,138 @@ public class SQLBuilderTests extends TestBase {
 
 	/**
 	 * 
+	 * @throws ParseException
+	 */
+	@Test
+	public void testCompile() throws ParseException {
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+		SQL sql = SQL.of("select * from customer where 1=1", //
+				" and store_id 	= :store_id", //
+				" and customer_id in ", $(1, 2, 3), //
+				" and active    = :active ", //
+				" and create_date between :startdate and :enddate");
+		sql.bindings().bind("store_id", null).optional();
+		sql.bindings().bind("active", true);
+		sql.bindings().bind("startdate", sdf.parse("2006-02-14"));
+		sql.bindings().bind("enddate", sdf.parse("2006-02-16"));
+
+		SQLTemplate template = sql.compile();
+		Assert.assertEquals(sql.toString(), template.toString());
+		Assert.assertEquals(5, template.size());
+		Assert.assertEquals(0, countChar(template.toString(), ':'));
+
+		Object[] values = template.values();
+		values[template.slots("store_id")[0]] = 1;
+		values[template.slots("active")[0]] = null;
+		sql.bindings().bind("store_id", 1);
+		sql.bindings().bind("active", null);
+		Assert.assertEquals(sql.toString(), template.render(values));
+		Assert.assertEquals(7, countChar(template.render(values), '?'));
+	}
+
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testTemplateContext() throws Exception {
+		SQL sql = SQL.of("select TABLE_NAME from INFORMATION_SCHEMA.TABLES where 1=1", //
+				" and TABLE_SCHEMA = :schema", //
+				" and TABLE_NAME in :names", //
+				" and TABLE_TYPE = :type");
+		sql.bindings().bind("schema", null);
+		sql.bindings().bind("names", Arrays.asList("USERS"));
+		sql.bindings().bind("type", null).optional();
+		final SQLTemplate template = sql.compile();
+
+		SQLTemplate.BindingContext context = template.context().bind("schema", "INFORMATION_SCHEMA")
+				.bind("names", Arrays.asList("USERS", "ROLES", "SESSIONS"));
+		Assert.assertEquals(4, countChar(context.render(), '?'));
+		Assert.assertEquals(2, countChar(template.context().render(), '?'));
+		Assert.assertEquals(1, countChar(template.context().exclude("schema", true).render(), '?'));
+		Assert.assertEquals(sql.toString(), template.context().render());
+
+		Connection connection = DriverManager.getConnection("jdbc:h2:mem:context", "sa", "");
+		PreparedStatement pstmt = connection.prepareStatement(context.render());
+		context.apply(pstmt);
+		ResultSet rs = pstmt.executeQuery();
+		int count = 0;
+		while (rs.next()) {
+			count++;
+		}
+		Assert.assertEquals(3, count);
+		connection.close();
+
+		// a single template used by many threads, each with its own context
+		final List<String> errors = new ArrayList<String>();
+		Thread[] threads = new Thread[16];
+		for (int t = 0; t < threads.length; t++) {
+			final int size = t + 1;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 100; i++) {
+						List<Integer> names = new ArrayList<Integer>();
+						for (int j = 0; j < size; j++) {
+							names.add(j);
+						}
+						String rendered = template.context().bind("names", names).render();
+						if (countChar(rendered, '?') != size + 1) {
+							synchronized (errors) {
+								errors.add(rendered);
+							}
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertTrue(errors.toString(), errors.isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRenderCache() {
+		SQL sql = SQL.of("select * from customer where 1=1", //
+				" and store_id = :store_id", //
+				" and customer_id in :customer_ids");
+		sql.bindings().bind("store_id", null).optional();
+		sql.bindings().bind("customer_ids", Arrays.asList(1, 2));
+
+		String first = sql.toString();
+		Assert.assertSame(first, sql.toString());
+		Assert.assertEquals(2, countChar(first, '?'));
+
+		sql.bindings().bind("customer_ids", Arrays.asList(3, 4));
+		Assert.assertSame(first, sql.toString());
+
+		sql.bindings().bind("store_id", 1);
+		Assert.assertEquals(3, countChar(sql.toString(), '?'));
+
+		sql.bindings().bind("customer_ids", Arrays.asList(1, 2, 3));
+		Assert.assertEquals(4, countChar(sql.toString(), '?'));
+
+		sql.bindings().bind("store_id", null);
+		sql.bindings().bind("customer_ids", Arrays.asList(1, 2));
+		Assert.assertSame(first, sql.toString());
+
+		sql.append("and active = true");
+		Assert.assertTrue(sql.toString().endsWith("and active = true"));
+
+		// a content change discards the cached strings
+		((StreeClause) sql.getNodes().get(0)).content("select customer_id from customer where 1=1");
+		Assert.assertTrue(sql.toString().startsWith("select customer_id from customer"));
+		((StreeClause) sql.getNodes().get(3)).replace("true", "false");
+		Assert.assertTrue(sql.toString().endsWith("and active = false"));
+	}
+
+	/**
+	 *
 	 */
 	public static class Foo {
 		public String store_id;
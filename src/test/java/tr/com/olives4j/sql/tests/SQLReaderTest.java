@@ -17,20 +17,42 @@
 package tr.com.olives4j.sql.tests;
 
 import java.io.FileReader;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 import org.apache.log4j.BasicConfigurator;
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PatternLayout;
+import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import tr.com.olives4j.sql.SQL;
 import tr.com.olives4j.sql.SQLBindNode;
+import tr.com.olives4j.sql.SQLCache;
 import tr.com.olives4j.sql.SQLCollection;
+import tr.com.olives4j.sql.SQLGenerator;
 import tr.com.olives4j.sql.SQLReader;
+import tr.com.olives4j.sql.SQLRegistry;
+import tr.com.olives4j.sql.util.SQLLexer;
+import tr.com.olives4j.stree.StreeClause;
+import tr.com.olives4j.stree.StreeNodeMatcher;
 
 /**
  * 
@@ -76,4 +98,361 @@ public class SQLReaderTest extends TestBase {
 		buffer.append("\n1.3 Bindings      : \n" + lines(list));
 		System.out.println(buffer);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStreamSQLScript() throws Exception {
+		SQLCollection sqls = SQLReader.read(new FileReader("src/test/sql/test1-search-query.sql"));
+		Iterator<SQL> stream = SQLReader.stream(new FileReader("src/test/sql/test1-search-query.sql"), null);
+
+		int i = 0;
+		while (stream.hasNext()) {
+			Assert.assertEquals(sqls.get(i++).toString(), stream.next().toString());
+		}
+		Assert.assertEquals(sqls.size(), i);
+	}
+
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testReadMappedSQLScript() throws Exception {
+		SQLCollection sqls = SQLReader.read(new FileReader("src/test/sql/test1-search-query.sql"));
+		SQLCollection mapped = SQLReader.read(Paths.get("src/test/sql/test1-search-query.sql"),
+				Charset.defaultCharset(), null);
+
+		Assert.assertEquals(sqls.size(), mapped.size());
+		for (int i = 0; i < sqls.size(); i++) {
+			Assert.assertEquals(sqls.get(i).toString(), mapped.get(i).toString());
+		}
+		Assert.assertNotNull(mapped.get("search_customer"));
+	}
+
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testParallelSQLScript() throws Exception {
+		StringBuilder script = new StringBuilder();
+		for (int i = 0; script.length() < 1024 * 1024; i++) {
+			script.append("-- statement ").append(i).append(";\n");
+			script.append("select a, 'x;y' from t").append(i).append(" where b = :b").append(i).append(";\n");
+			script.append("/* ; */ update t set c = case when d = 1 then 'a' else 'b' end where e = ").append(i)
+					.append(";\n");
+			script.append("BEGIN\n  insert into t values (").append(i).append(");\n  commit;\nEND;\n");
+			script.append("CREATE OR REPLACE PACKAGE BODY P").append(i).append(" AS\n");
+			script.append("  PROCEDURE a IS BEGIN IF x THEN y := 1; END IF; END a;\n");
+			script.append("  PROCEDURE b IS BEGIN null; END b;\n");
+			script.append("END P").append(i).append(";\n");
+		}
+
+		SQLCollection sqls = SQLReader.read(script);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			SQLCollection parallel = SQLReader.read(script, null, pool);
+			Assert.assertEquals(sqls.size(), parallel.size());
+			for (int i = 0; i < sqls.size(); i++) {
+				Assert.assertEquals(sqls.get(i).toString(), parallel.get(i).toString());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCollectionIndex() throws Exception {
+		SQLCollection sqls = new SQLCollection();
+		SQL first = new SQL("first");
+		SQL generated = new SQL();
+		sqls.add(first);
+		sqls.add(generated);
+		sqls.add(new SQL("second"));
+
+		Assert.assertSame(first, sqls.get("first"));
+		Assert.assertSame(generated, sqls.get(generated.name()));
+		Assert.assertEquals(3, sqls.asMap().size());
+
+		try {
+			sqls.add(new SQL("first"));
+			Assert.fail("Dublicate name should be rejected");
+		} catch (RuntimeException e) {
+			// expected
+		}
+
+		sqls.remove(first);
+		Assert.assertNull(sqls.get("first"));
+		Assert.assertEquals(2, sqls.asMap().size());
+	}
+
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCachedSQLScript() throws Exception {
+		Path file = Paths.get("src/test/sql/test1-search-query.sql");
+		Path directory = Files.createTempDirectory("sql-cache");
+		SQLCache cache = new SQLCache(directory);
+		try {
+			SQLCollection parsed = SQLReader.read(file, Charset.defaultCharset(), null, cache);
+			String key = SQLCache.key(Files.readAllBytes(file), Charset.defaultCharset(), new SQLReader.Options());
+			Assert.assertTrue(Files.exists(directory.resolve(key + ".sqlc")));
+
+			SQLCollection cached = SQLReader.read(file, Charset.defaultCharset(), null, cache);
+			Assert.assertEquals(parsed.size(), cached.size());
+			for (int i = 0; i < parsed.size(); i++) {
+				SQL expected = parsed.get(i);
+				SQL actual = cached.get(i);
+				Assert.assertEquals(expected.toString(), actual.toString());
+				Assert.assertEquals(expected.bindings().size(), actual.bindings().size());
+				Iterator<SQLBindNode> actualBinds = actual.bindings().iterator();
+				for (SQLBindNode bind : toList(expected.bindings().iterator())) {
+					SQLBindNode next = actualBinds.next();
+					Assert.assertEquals(bind.getName(), next.getName());
+					Assert.assertEquals(bind.isOptional(), next.isOptional());
+					Assert.assertEquals(bind.getDefaultValue(), next.getDefaultValue());
+				}
+			}
+			Assert.assertNotNull(cached.get("search_customer"));
+			Assert.assertNotNull(cached.get("find_customer_by_id"));
+
+			cached.get("search_customer").bindings().bind("active", true);
+			parsed.get("search_customer").bindings().bind("active", true);
+			Assert.assertEquals(parsed.get("search_customer").toString(), cached.get("search_customer").toString());
+
+			// a damaged file is parsed again
+			Files.write(directory.resolve(key + ".sqlc"), new byte[] { 1, 2, 3 });
+			Assert.assertNull(cache.get(key));
+			Assert.assertEquals(parsed.size(), SQLReader.read(file, Charset.defaultCharset(), null, cache).size());
+			Assert.assertNotNull(cache.get(key));
+		} finally {
+			for (Path next : Files.newDirectoryStream(directory)) {
+				Files.delete(next);
+			}
+			Files.delete(directory);
+		}
+	}
+
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testRegistry() throws Exception {
+		Charset utf8 = Charset.forName("UTF-8");
+		Path directory = Files.createTempDirectory("sql-registry");
+		Path customer = directory.resolve("customer.sql");
+		Files.write(customer, ("--@NAMED find_customer\nselect * from customer where id = :id\n;\n"
+				+ "select 1 from dual;\n").getBytes(utf8));
+
+		SQLRegistry registry = new SQLRegistry().load(Paths.get("src/test/sql")).load(directory).watch();
+		try {
+			Assert.assertEquals(3, registry.size());
+			Assert.assertNotNull(registry.get("search_customer"));
+
+			SQL first = registry.get("find_customer");
+			first.bindings().bind("id", 1);
+			Assert.assertNotSame(first, registry.get("find_customer"));
+			Assert.assertNull(registry.get("find_customer").bindings().get(0).value());
+
+			Path store = directory.resolve("store.sql");
+			Files.write(store, "--@NAMED find_store\nselect * from store where id = :id\n;\n".getBytes(utf8));
+			Files.write(customer, "--@NAMED find_customer\nselect * from customer where code = :code\n;\n"
+					.getBytes(utf8));
+			for (int i = 0; i < 200 && !(registry.contains("find_store")
+					&& registry.get("find_customer").toString().contains("code")); i++) {
+				Thread.sleep(50);
+			}
+			Assert.assertTrue(registry.contains("find_store"));
+			Assert.assertTrue(registry.get("find_customer").toString().contains("code"));
+
+			// a duplicate name keeps the previous statements
+			Files.write(directory.resolve("duplicate.sql"),
+					"--@NAMED find_store\nselect 1 from dual\n;\n".getBytes(utf8));
+			for (int i = 0; i < 200 && registry.lastError() == null; i++) {
+				Thread.sleep(50);
+			}
+			Assert.assertNotNull(registry.lastError());
+			Assert.assertTrue(registry.get("find_store").toString().contains("store"));
+
+			Files.delete(directory.resolve("duplicate.sql"));
+			Files.delete(store);
+			for (int i = 0; i < 200 && registry.contains("find_store"); i++) {
+				Thread.sleep(50);
+			}
+			Assert.assertFalse(registry.contains("find_store"));
+			Assert.assertEquals(3, registry.size());
+		} finally {
+			registry.close();
+			Files.delete(customer);
+			Files.delete(directory);
+		}
+	}
+
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testRegistryMove() throws Exception {
+		Path directory = Files.createTempDirectory("sql-registry");
+		Path outside = Files.createTempDirectory("sql-registry-outside");
+		Path orders = Files.createDirectory(directory.resolve("orders"));
+		Files.write(orders.resolve("order.sql"),
+				"--@NAMED find_order\nselect * from orders where id = :id\n;\n".getBytes(Charset.forName("UTF-8")));
+
+		SQLRegistry registry = new SQLRegistry().load(directory).watch();
+		Path moved = outside.resolve("orders");
+		try {
+			Assert.assertTrue(registry.contains("find_order"));
+
+			Files.move(orders, moved);
+			for (int i = 0; i < 200 && registry.contains("find_order"); i++) {
+				Thread.sleep(50);
+			}
+			Assert.assertFalse(registry.contains("find_order"));
+
+			Files.move(moved, orders);
+			for (int i = 0; i < 200 && !registry.contains("find_order"); i++) {
+				Thread.sleep(50);
+			}
+			Assert.assertTrue(registry.contains("find_order"));
+		} finally {
+			registry.close();
+			Path current = Files.exists(orders) ? orders : moved;
+			Files.delete(current.resolve("order.sql"));
+			Files.delete(current);
+			Files.delete(directory);
+			Files.delete(outside);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testLexer() {
+		String sql = "begin select 'a:b', x::int from t /* :c */ where id = :id; -- :d\nEnd;";
+		SQLLexer lexer = new SQLLexer(sql);
+		StringBuilder tokens = new StringBuilder();
+		for (int kind = lexer.next(); kind != SQLLexer.EOF; kind = lexer.next()) {
+			if (kind != SQLLexer.WHITESPACE) {
+				tokens.append(kind).append(':').append(sql, lexer.start(), lexer.end()).append(' ');
+			}
+			if (kind == SQLLexer.WORD && lexer.keyword() != SQLLexer.NONE) {
+				tokens.append(lexer.keyword()).append(' ');
+			}
+		}
+		Assert.assertEquals("2:begin 1 2:select 13 5:'a:b' 8:, 2:x 8:: 4::int 2:from 14 2:t 7:/* :c */ 2:where 15 "
+				+ "2:id 8:= 4::id 8:; 6:-- :d 2:End 2 8:; ", tokens.toString());
+		Assert.assertEquals(SQLLexer.BEGIN, SQLLexer.keyword("BEG\u0130N", 0, 5));
+
+		// parameters in comments and strings are not bound
+		SQL parsed = SQL.of("select ':a' from t /* :b */ where id = :id -- :c\n");
+		Assert.assertEquals(1, parsed.bindings().size());
+		Assert.assertEquals("id", parsed.bindings().iterator().next().getName());
+	}
+
+	/**
+	 * 
+	 */
+	@Test
+	public void testSlices() {
+		String script = "select * from customer\nwhere id = :id\nand name = 'x' --@:name optional\n;";
+		SQL sql = SQLReader.read(script).get(0);
+		Assert.assertEquals(2, sql.bindings().size());
+		Assert.assertEquals("'x'", sql.bindings().get("name").value());
+
+		int slices = 0;
+		Iterator<StreeClause> it = sql.iterator(new StreeNodeMatcher<StreeClause>(StreeClause.class, null));
+		while (it.hasNext()) {
+			CharSequence content = it.next().content();
+			if (content instanceof StreeClause.Slice) {
+				Assert.assertTrue(script.contains(content));
+				slices++;
+			}
+		}
+		Assert.assertEquals(3, slices);
+
+		StreeClause.Slice slice = new StreeClause.Slice(script.toCharArray(), 7, 22);
+		Assert.assertEquals("* from customer", slice.toString());
+		Assert.assertEquals("from", slice.subSequence(2, 6).toString());
+		Assert.assertEquals('c', slice.charAt(7));
+		StringBuilder buffer = new StringBuilder("x");
+		new StreeClause(script.toCharArray(), 0, 22).merge(buffer);
+		Assert.assertEquals("x select * from customer", buffer.toString());
+	}
+
+	/**
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testGenerator() throws Exception {
+		Path directory = Files.createTempDirectory("sql-generator");
+		try {
+			List<Path> generated = new SQLGenerator("tr.com.olives4j.sql.generated")
+					.generate(Paths.get("src/test/sql"), directory);
+			Assert.assertEquals(1, generated.size());
+			Assert.assertEquals(directory.resolve("tr/com/olives4j/sql/generated/Test1SearchQuery.java"),
+					generated.get(0));
+
+			JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+			Assume.assumeNotNull(compiler);
+			Assert.assertEquals(0, compiler.run(null, null, null, "-nowarn", "-cp", System.getProperty("java.class.path"),
+					"-d", directory.toString(), generated.get(0).toString()));
+
+			URLClassLoader loader = new URLClassLoader(new URL[] { directory.toUri().toURL() },
+					getClass().getClassLoader());
+			try {
+				Class<?> type = loader.loadClass("tr.com.olives4j.sql.generated.Test1SearchQuery");
+				Assert.assertEquals("search_customer", type.getField("SEARCH_CUSTOMER").get(null));
+
+				Object builder = type.getMethod("searchCustomer").invoke(null);
+				builder.getClass().getMethod("active", Boolean.class).invoke(builder, false);
+				builder.getClass().getMethod("storeId", Object.class).invoke(builder, 5);
+				builder.getClass().getMethod("startDate", Object.class).invoke(builder, "2016-01-01");
+				SQL sql = (SQL) builder.getClass().getMethod("sql").invoke(builder);
+
+				SQL expected = SQLReader.read(Paths.get("src/test/sql/test1-search-query.sql"),
+						Charset.defaultCharset(), null).get("search_customer");
+				expected.bindings().bind("active", false);
+				expected.bindings().bind("store_id", 5);
+				expected.bindings().bind("start_date", "2016-01-01");
+				Assert.assertEquals(expected.toString(), sql.toString());
+				Assert.assertEquals(expected.bindings().size(), sql.bindings().size());
+				Assert.assertEquals("2016-01-01", sql.bindings().get("start_date").value());
+
+				// each builder works on its own copy
+				Object other = type.getMethod("searchCustomer").invoke(null);
+				SQL otherSql = (SQL) other.getClass().getMethod("sql").invoke(other);
+				Assert.assertNull(otherSql.bindings().get("start_date").value());
+			} finally {
+				loader.close();
+			}
+		} finally {
+			Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+	}
+}